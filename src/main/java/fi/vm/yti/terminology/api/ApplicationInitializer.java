@@ -6,6 +6,7 @@ import fi.vm.yti.terminology.api.exception.TermedEndpointException;
 import fi.vm.yti.terminology.api.index.BrokenTermedDataLinkException;
 import fi.vm.yti.terminology.api.index.IndexElasticSearchService;
 import fi.vm.yti.terminology.api.index.IndexTermedService;
+import fi.vm.yti.terminology.api.index.IndexUpdateQueue;
 import fi.vm.yti.terminology.api.synchronization.SynchronizationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +22,7 @@ public class ApplicationInitializer {
 
     private final IndexElasticSearchService elasticSearchService;
     private final IndexTermedService termedApiService;
+    private final IndexUpdateQueue indexUpdateQueue;
     private final SynchronizationService synchronizationService;
 
     private final Logger log = LoggerFactory.getLogger(this.getClass());
@@ -33,10 +35,12 @@ public class ApplicationInitializer {
     @Autowired
     public ApplicationInitializer(IndexElasticSearchService elasticSearchService,
                                   IndexTermedService termedApiService,
+                                  IndexUpdateQueue indexUpdateQueue,
                                   SynchronizationService synchronizationService,
                                   MigrationInitializer migrationInitializer /* XXX: dependency to enforce init order */) {
         this.elasticSearchService = elasticSearchService;
         this.termedApiService = termedApiService;
+        this.indexUpdateQueue = indexUpdateQueue;
         this.synchronizationService = synchronizationService;
     }
 
@@ -52,12 +56,19 @@ public class ApplicationInitializer {
 
                 synchronizationService.synchronize();
 
-                this.elasticSearchService.initIndex();
+                boolean indexKept = this.elasticSearchService.initIndex();
+
+                this.indexUpdateQueue.replayJournal();
 
                 if (!NOTIFY_HOOK_URL.isEmpty()) {
                     registerNotificationUrl(NOTIFY_HOOK_URL);
                 }
 
+                // Termed does not notify us of changes made while we were down, catch up once the hook is in place
+                if (indexKept) {
+                    this.elasticSearchService.incrementalReindex();
+                }
+
                 return;
 
             } catch (TermedEndpointException | ElasticEndpointException | BrokenTermedDataLinkException e) {
@@ -15,8 +15,13 @@ public class ReindexTask {
 		this.esService = esService;
 	}
 
-	@Scheduled(cron = "0 0 3 * * *")
+	@Scheduled(cron = "${search.reindex.fullCron:0 0 3 * * SUN}")
 	public void reindex() {
 		this.esService.reindex();
 	}
+
+	@Scheduled(cron = "${search.reindex.incrementalCron:0 0 3 * * MON-SAT}")
+	public void incrementalReindex() {
+		this.esService.incrementalReindex();
+	}
 }
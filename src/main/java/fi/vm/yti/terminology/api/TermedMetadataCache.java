@@ -0,0 +1,183 @@
+package fi.vm.yti.terminology.api;
+
+import fi.vm.yti.terminology.api.model.termed.NodeType;
+import fi.vm.yti.terminology.api.model.termed.TypeId;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Bounded least recently used cache of rarely changing Termed metadata such as graphs, types and
+ * vocabulary nodes.
+ * <p>
+ * Entries belong to a graph, or to no graph for metadata spanning all graphs such as the graph list.
+ * Changes to vocabulary nodes, notified by Termed or saved by us, and our own writes to graphs and types
+ * drop the entries of their graph and the entries spanning all graphs, since a terminology created or
+ * deleted elsewhere is only seen through its vocabulary node. Changes to other nodes such as concepts and
+ * terms do not affect the metadata. Entries older than {@code maxAgeMillis} are dropped to pick up changes
+ * that were not seen.
+ */
+@Service
+public class TermedMetadataCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TermedMetadataCache.class);
+
+    private final int maxEntries;
+    private final long maxAgeMillis;
+
+    private final Map<Key, Entry> entries;
+    private long invalidations;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public TermedMetadataCache(@Value("${termed.cache.maxEntries:500}") int maxEntries,
+                               @Value("${termed.cache.maxAge:300}") long maxAgeSeconds,
+                               MeterRegistry meterRegistry) {
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeSeconds * 1000;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > TermedMetadataCache.this.maxEntries;
+            }
+        };
+        this.hits = counter(meterRegistry, "hit");
+        this.misses = counter(meterRegistry, "miss");
+        Gauge.builder("terminology.termed.cache.size", this, TermedMetadataCache::size)
+                .description("Termed metadata responses in the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached response or fetches and caches it. Null responses are not cached.
+     *
+     * @param graphId graph the response belongs to, null if it spans all graphs
+     * @param request path, parameters and response type of the request
+     * @param fetch   fetches the response, the response must not be modified after it is returned
+     */
+    @SuppressWarnings("unchecked")
+    public <T> @Nullable T get(@Nullable UUID graphId, @NotNull String request, @NotNull Supplier<T> fetch) {
+
+        if (maxEntries <= 0) {
+            return fetch.get();
+        }
+
+        Key key = new Key(graphId, request);
+        long now = System.currentTimeMillis();
+        long fetchedAfter;
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.created < maxAgeMillis) {
+                hits.increment();
+                return (T) entry.value;
+            }
+            fetchedAfter = invalidations;
+        }
+
+        misses.increment();
+        T value = fetch.get();
+
+        if (value != null) {
+            synchronized (entries) {
+                // Do not cache a response that may have been fetched before an invalidation
+                if (invalidations == fetchedAfter) {
+                    entries.put(key, new Entry(value, now));
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops the entries of the node's graph and the entries spanning all graphs if the node is a vocabulary node.
+     *
+     * @param type type of the saved or deleted node
+     */
+    public void nodeChanged(@Nullable TypeId type) {
+        if (type != null && type.getGraphId() != null
+                && (type.getId() == NodeType.Vocabulary || type.getId() == NodeType.TerminologicalVocabulary)) {
+            graphChanged(type.getGraphId());
+        }
+    }
+
+    /**
+     * Drops the entries of the graph and the entries spanning all graphs, after the graph has been created
+     * or deleted or its types have changed.
+     */
+    public void graphChanged(@NotNull UUID graphId) {
+        logger.debug("Invalidating cached termed metadata of graph " + graphId + " and all graphs");
+        synchronized (entries) {
+            invalidations++;
+            entries.keySet().removeIf(key -> key.graphId == null || key.graphId.equals(graphId));
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static @NotNull Counter counter(@NotNull MeterRegistry meterRegistry, @NotNull String result) {
+        return Counter.builder("terminology.termed.cache.requests")
+                .description("Cached termed metadata requests by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static final class Key {
+
+        @Nullable
+        private final UUID graphId;
+        private final String request;
+
+        private Key(@Nullable UUID graphId, @NotNull String request) {
+            this.graphId = graphId;
+            this.request = request;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(graphId, key.graphId) && request.equals(key.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(graphId, request);
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+        private final long created;
+
+        private Entry(Object value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
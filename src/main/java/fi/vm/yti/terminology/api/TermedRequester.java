@@ -16,7 +16,15 @@ import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
 import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Supplier;
 
 @Service
@@ -30,12 +38,15 @@ public class TermedRequester {
     private final String termedPassword;
     private final String termedUrl;
     private final RestTemplate restTemplate;
+    private final TermedMetadataCache metadataCache;
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlightRequests = new ConcurrentHashMap<>();
 
     @Autowired
     TermedRequester(@Value("${api.user}") String termedUser,
                     @Value("${api.pw: #{null}}") @Nullable String termedPassword,
                     @Value("${api.url}") String termedUrl,
                     RestTemplate restTemplate,
+                    TermedMetadataCache metadataCache,
                     Environment environment) {
         this.termedUser = termedUser;
         final String termedApiPassword = environment.getProperty(API_PW);
@@ -46,6 +57,7 @@ public class TermedRequester {
         }
         this.termedUrl = termedUrl;
         this.restTemplate = restTemplate;
+        this.metadataCache = metadataCache;
     }
 
     public <TResponse> @Nullable TResponse exchange(@NotNull String path,
@@ -194,6 +206,100 @@ public class TermedRequester {
         return mapExceptions(() -> restTemplate.exchange(createUrl(path, parameters), method, new HttpEntity<>(body, createHeaders(username, password, contentType)), responseType).getBody());
     }
 
+    /**
+     * GET that shares one in-flight request and its result with concurrent identical requests, identified by
+     * path, parameters, response type and user. Meant for read only calls that are made concurrently with the
+     * same parameters such as vocabulary and type lookups. The result is shared with the other callers and must
+     * not be modified.
+     */
+    public <TResponse> @Nullable TResponse exchangeShared(@NotNull String path,
+                                                          @NotNull Parameters parameters,
+                                                          @NotNull ParameterizedTypeReference<TResponse> responseType) {
+        return shared(termedUser + " " + requestKey(path, parameters, responseType.getType()),
+                () -> exchange(path, HttpMethod.GET, parameters, responseType));
+    }
+
+    /**
+     * Shared GET of rarely changing metadata that is cached until the graph is invalidated in
+     * {@link TermedMetadataCache}. The result must not be modified.
+     *
+     * @param graphId graph the response belongs to, null if it spans all graphs
+     */
+    public <TResponse> @Nullable TResponse exchangeCached(@Nullable UUID graphId,
+                                                          @NotNull String path,
+                                                          @NotNull Parameters parameters,
+                                                          @NotNull ParameterizedTypeReference<TResponse> responseType) {
+        return metadataCache.get(graphId, requestKey(path, parameters, responseType.getType()),
+                () -> exchangeShared(path, parameters, responseType));
+    }
+
+    public <TResponse> @Nullable TResponse exchangeCached(@Nullable UUID graphId,
+                                                          @NotNull String path,
+                                                          @NotNull Parameters parameters,
+                                                          @NotNull Class<TResponse> responseType) {
+        String key = requestKey(path, parameters, responseType);
+        return metadataCache.get(graphId, key,
+                () -> shared(termedUser + " " + key, () -> exchange(path, HttpMethod.GET, parameters, responseType)));
+    }
+
+    /**
+     * Identifies a GET by path, parameters and the type it is read as, so that the same response read
+     * as different types is never shared.
+     */
+    private static @NotNull String requestKey(@NotNull String path, @NotNull Parameters parameters, @NotNull Type responseType) {
+        return path + parameters.toString() + " " + responseType.getTypeName();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> @Nullable T shared(@NotNull String key, @NotNull Supplier<T> request) {
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightRequests.putIfAbsent(key, future);
+
+        if (inFlight != null) {
+            logger.debug("Joining in-flight termed request: " + key);
+            try {
+                return (T) inFlight.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            T result = request.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRequests.remove(key, future);
+        }
+    }
+
+    /**
+     * Passes the response body to the reader as a stream instead of reading it to memory first.
+     * The stream is closed after the reader returns.
+     */
+    public <TResponse> @Nullable TResponse exchangeStream(@NotNull String path,
+                                                          @NotNull HttpMethod method,
+                                                          @NotNull Parameters parameters,
+                                                          @NotNull ResponseReader<TResponse> reader) {
+        logger.debug("Termed request: " + method.toString() + ":" + path);
+        HttpHeaders headers = createHeaders(termedUser, termedPassword, DEFAULT_CONTENT_TYPE);
+        return mapExceptions(() -> restTemplate.execute(createUrl(path, parameters), method,
+                request -> request.getHeaders().putAll(headers),
+                response -> reader.read(response.getBody())));
+    }
+
+    @FunctionalInterface
+    public interface ResponseReader<T> {
+        T read(@NotNull InputStream body) throws IOException;
+    }
+
     private static <T> T mapExceptions(Supplier<T> supplier) {
         boolean success = false;
         try {
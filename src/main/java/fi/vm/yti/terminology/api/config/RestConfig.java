@@ -3,12 +3,28 @@ package fi.vm.yti.terminology.api.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.util.StdDateFormat;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.ssl.SSLContexts;
 import org.apache.http.ssl.TrustStrategy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.ClientHttpRequestFactory;
@@ -22,6 +38,8 @@ import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL;
 import static com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS;
@@ -31,21 +49,46 @@ class RestConfig {
 
     private final ObjectMapper objectMapper;
 
+    private final int httpMaxTotal;
+    private final int httpMaxPerRoute;
+    private final int httpConnectTimeout;
+    private final int httpReadTimeout;
+    private final int httpLeaseTimeout;
+    private final long httpKeepAlive;
+    private final long httpMaxIdle;
+    private final int httpValidateAfterInactivity;
+
     @Autowired
-    RestConfig(ObjectMapper objectMapper) {
+    RestConfig(ObjectMapper objectMapper,
+               @Value("${http.client.maxTotal:100}") int httpMaxTotal,
+               @Value("${http.client.maxPerRoute:50}") int httpMaxPerRoute,
+               @Value("${http.client.connectTimeout:5000}") int httpConnectTimeout,
+               @Value("${http.client.readTimeout:300000}") int httpReadTimeout,
+               @Value("${http.client.leaseTimeout:30000}") int httpLeaseTimeout,
+               @Value("${http.client.keepAlive:30000}") long httpKeepAlive,
+               @Value("${http.client.maxIdle:60000}") long httpMaxIdle,
+               @Value("${http.client.validateAfterInactivity:2000}") int httpValidateAfterInactivity) {
         objectMapper.setSerializationInclusion(NON_NULL);
         objectMapper.disable(WRITE_DATES_AS_TIMESTAMPS);
         objectMapper.setDateFormat(new StdDateFormat().withColonInTimeZone(true));
         this.objectMapper = objectMapper;
+        this.httpMaxTotal = httpMaxTotal;
+        this.httpMaxPerRoute = httpMaxPerRoute;
+        this.httpConnectTimeout = httpConnectTimeout;
+        this.httpReadTimeout = httpReadTimeout;
+        this.httpLeaseTimeout = httpLeaseTimeout;
+        this.httpKeepAlive = httpKeepAlive;
+        this.httpMaxIdle = httpMaxIdle;
+        this.httpValidateAfterInactivity = httpValidateAfterInactivity;
     }
 
     @Bean
-    ClientHttpRequestFactory httpRequestFactory() {
-        return new HttpComponentsClientHttpRequestFactory(httpClient());
+    ClientHttpRequestFactory httpRequestFactory(HttpClient httpClient) {
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
     }
 
     @Bean
-    HttpClient httpClient() {
+    PoolingHttpClientConnectionManager httpConnectionManager(MeterRegistry meterRegistry) {
 
         TrustStrategy naivelyAcceptingTrustStrategy = (X509Certificate[] chain, String authType) -> true;
 
@@ -54,18 +97,58 @@ class RestConfig {
                     .loadTrustMaterial(null, naivelyAcceptingTrustStrategy)
                     .build();
 
-            return HttpClients.custom()
-                    .setSSLSocketFactory(new SSLConnectionSocketFactory(sslContext))
+            Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", new SSLConnectionSocketFactory(sslContext))
                     .build();
 
+            Timer leaseWait = Timer.builder("httpcomponents.httpclient.pool.lease.wait")
+                    .description("Time spent waiting for a pooled connection")
+                    .tag("httpclient", "rest")
+                    .register(meterRegistry);
+
+            PoolingHttpClientConnectionManager connectionManager = new MeteredConnectionManager(socketFactories, leaseWait);
+            connectionManager.setMaxTotal(httpMaxTotal);
+            connectionManager.setDefaultMaxPerRoute(httpMaxPerRoute);
+            connectionManager.setValidateAfterInactivity(httpValidateAfterInactivity);
+
+            new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "rest").bindTo(meterRegistry);
+
+            return connectionManager;
+
         } catch (NoSuchAlgorithmException |KeyManagementException |KeyStoreException e) {
             throw new RuntimeException(e);
         }
     }
 
     @Bean
-    RestTemplate restTemplate() {
-        RestTemplate restTemplate = new RestTemplate(httpRequestFactory());
+    HttpClient httpClient(PoolingHttpClientConnectionManager connectionManager) {
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(httpConnectTimeout)
+                .setSocketTimeout(httpReadTimeout)
+                .setConnectionRequestTimeout(httpLeaseTimeout)
+                .build();
+
+        // Reuse connections for as long as the server allows but at most keepAlive, or keepAlive when the server does not say
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, httpKeepAlive) : httpKeepAlive;
+        };
+
+        // Content compression is on by default: gzip and deflate are accepted and responses decompressed
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(httpMaxIdle, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Bean
+    RestTemplate restTemplate(ClientHttpRequestFactory httpRequestFactory) {
+        RestTemplate restTemplate = new RestTemplate(httpRequestFactory);
 
         for (HttpMessageConverter<?> converter : restTemplate.getMessageConverters()) {
             if (converter instanceof MappingJackson2HttpMessageConverter) {
@@ -75,4 +158,41 @@ class RestConfig {
 
         return restTemplate;
     }
+
+    /**
+     * Connection manager recording the time requests wait for a connection from the pool.
+     */
+    private static final class MeteredConnectionManager extends PoolingHttpClientConnectionManager {
+
+        private final Timer leaseWait;
+
+        private MeteredConnectionManager(Registry<ConnectionSocketFactory> socketFactories, Timer leaseWait) {
+            super(socketFactories);
+            this.leaseWait = leaseWait;
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+
+            ConnectionRequest request = super.requestConnection(route, state);
+
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return request.get(timeout, timeUnit);
+                    } finally {
+                        leaseWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+    }
 }
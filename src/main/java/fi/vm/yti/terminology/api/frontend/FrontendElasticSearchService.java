@@ -1,16 +1,20 @@
 package fi.vm.yti.terminology.api.frontend;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import org.apache.http.HttpHost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Request;
@@ -24,6 +28,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -36,7 +41,11 @@ import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSearchResponse;
 import fi.vm.yti.terminology.api.frontend.searchdto.DeepSearchHitListDTO;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySearchRequest;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySearchResponse;
+import fi.vm.yti.terminology.api.index.IndexElasticSearchService;
+import fi.vm.yti.terminology.api.index.SearchResultCache;
 import fi.vm.yti.terminology.api.util.Parameters;
+import static fi.vm.yti.terminology.api.index.IndexElasticSearchService.CONCEPT_INDEX;
+import static fi.vm.yti.terminology.api.index.IndexElasticSearchService.VOCABULARY_INDEX;
 import static fi.vm.yti.terminology.api.util.ElasticRequestUtils.responseContentAsString;
 
 @Service
@@ -54,6 +63,8 @@ public class FrontendElasticSearchService {
     private final TerminologyQueryFactory terminologyQueryFactory;
     private final DeepConceptQueryFactory deepConceptQueryFactory;
     private final ConceptQueryFactory conceptQueryFactory;
+    private final IndexElasticSearchService indexElasticSearchService;
+    private final SearchResultCache searchResultCache;
 
     @Autowired
     public FrontendElasticSearchService(@Value("${search.host.url}") String searchHostUrl,
@@ -63,7 +74,9 @@ public class FrontendElasticSearchService {
                                         @Value("${search.index.mapping.type}") String indexMappingType,
                                         @Value("${namespace.root}") String namespaceRoot,
                                         ObjectMapper objectMapper,
-                                        AuthenticatedUserProvider userProvider) {
+                                        AuthenticatedUserProvider userProvider,
+                                        IndexElasticSearchService indexElasticSearchService,
+                                        SearchResultCache searchResultCache) {
         this.indexName = indexName;
         this.indexMappingType = indexMappingType;
         this.esRestClient = new RestHighLevelClient(RestClient.builder(new HttpHost(searchHostUrl, searchHostPort, searchHostScheme)));
@@ -73,12 +86,19 @@ public class FrontendElasticSearchService {
         this.terminologyQueryFactory = new TerminologyQueryFactory(objectMapper);
         this.deepConceptQueryFactory = new DeepConceptQueryFactory(objectMapper);
         this.conceptQueryFactory = new ConceptQueryFactory(objectMapper, namespaceRoot);
+        this.indexElasticSearchService = indexElasticSearchService;
+        this.searchResultCache = searchResultCache;
     }
 
     ConceptSearchResponse searchConcept(ConceptSearchRequest request) {
         request.setQuery(request.getQuery() != null ? request.getQuery().trim() : "");
+        final boolean superUser = superUser();
+        return searchResultCache.get(cacheKey("searchConcept", request, superUser),
+            () -> doSearchConcept(request, superUser), CONCEPT_INDEX, VOCABULARY_INDEX);
+    }
+
+    private ConceptSearchResponse doSearchConcept(ConceptSearchRequest request, boolean superUser) {
         try {
-            final boolean superUser = superUser();
             SearchRequest query = conceptQueryFactory.createQuery(request, superUser, limit ->
                 superUser ? Collections.emptySet() : terminologiesMatchingOrganizations(readOrganizations(), limit)
             );
@@ -91,38 +111,65 @@ public class FrontendElasticSearchService {
 
     TerminologySearchResponse searchTerminology(TerminologySearchRequest request) {
         request.setQuery(request.getQuery() != null ? request.getQuery().trim() : "");
+        final boolean superUser = superUser();
+        return searchResultCache.get(cacheKey("searchTerminology", request, superUser),
+            () -> doSearchTerminology(request, superUser), CONCEPT_INDEX, VOCABULARY_INDEX);
+    }
 
-        boolean superUser = superUser();
+    private TerminologySearchResponse doSearchTerminology(TerminologySearchRequest request, boolean superUser) {
         Set<String> privilegedOrganizations = superUser ? Collections.emptySet() : readOrganizations();
 
-        Map<String, List<DeepSearchHitListDTO<?>>> deepSearchHits = null;
-        if (request.isSearchConcepts() && !request.getQuery().isEmpty()) {
-            try {
-                Set<String> incompleteFromTerminologies = superUser ? Collections.emptySet() : terminologiesMatchingOrganizations(privilegedOrganizations, null);
-                SearchRequest query = deepConceptQueryFactory.createQuery(request.getQuery(), request.getPrefLang(), superUser, incompleteFromTerminologies);
-                SearchResponse response = esRestClient.search(query, RequestOptions.DEFAULT);
-                deepSearchHits = deepConceptQueryFactory.parseResponse(response, request);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        SearchRequest terminologyQuery = terminologyQueryFactory.createQuery(request, superUser, privilegedOrganizations);
 
         try {
-            SearchRequest finalQuery;
+            if (!request.isSearchConcepts() || request.getQuery().isEmpty()) {
+                SearchResponse response = esRestClient.search(terminologyQuery, RequestOptions.DEFAULT);
+                return terminologyQueryFactory.parseResponse(response, request, null);
+            }
+
+            // Deep concept query and the plain terminology query are sent together, the terminology query
+            // is repeated only if concept hits bring in more terminologies.
+            Set<String> incompleteFromTerminologies = superUser ? Collections.emptySet() : terminologiesMatchingOrganizations(privilegedOrganizations, null);
+            SearchRequest deepQuery = deepConceptQueryFactory.createQuery(request.getQuery(), request.getPrefLang(), superUser, incompleteFromTerminologies);
+            MultiSearchResponse.Item[] responses = esRestClient.msearch(new MultiSearchRequest()
+                .add(deepQuery)
+                .add(terminologyQuery), RequestOptions.DEFAULT).getResponses();
+
+            Map<String, List<DeepSearchHitListDTO<?>>> deepSearchHits = deepConceptQueryFactory.parseResponse(searchResponse(responses[0]), request);
+
+            SearchResponse response;
             if (deepSearchHits != null && !deepSearchHits.isEmpty()) {
                 Set<String> additionalTerminilogyIds = deepSearchHits.keySet();
                 logger.debug("Deep concept search resulted in " + additionalTerminilogyIds.size() + " terminology matches");
-                finalQuery = terminologyQueryFactory.createQuery(request, additionalTerminilogyIds, superUser, privilegedOrganizations);
+                response = esRestClient.search(terminologyQueryFactory.createQuery(request, additionalTerminilogyIds, superUser, privilegedOrganizations), RequestOptions.DEFAULT);
             } else {
-                finalQuery = terminologyQueryFactory.createQuery(request, superUser, privilegedOrganizations);
+                response = searchResponse(responses[1]);
             }
-            SearchResponse response = esRestClient.search(finalQuery, RequestOptions.DEFAULT);
             return terminologyQueryFactory.parseResponse(response, request, deepSearchHits);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static SearchResponse searchResponse(MultiSearchResponse.Item item) {
+        if (item.isFailure()) {
+            throw new RuntimeException(item.getFailure());
+        }
+        return item.getResponse();
+    }
+
+    /**
+     * Search results depend on the request and on the incomplete content the user is allowed to see.
+     */
+    private List<Object> cacheKey(String search, Object request, boolean superUser) {
+        try {
+            return Arrays.asList(search, objectMapper.writeValueAsString(request),
+                superUser ? "superuser" : new TreeSet<>(readOrganizations()));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private boolean superUser() {
         return userProvider.getUser().isSuperuser();
     }
@@ -137,16 +184,6 @@ public class FrontendElasticSearchService {
 
     private Set<String> terminologiesMatchingOrganizations(Collection<String> privilegedOrganizations,
                                                            Collection<String> limitToThese) {
-        try {
-            if (privilegedOrganizations.isEmpty()) {
-                return Collections.emptySet();
-            }
-            SearchRequest sr = terminologyQueryFactory.createMatchingTerminologiesQuery(privilegedOrganizations, limitToThese);
-            SearchResponse response = esRestClient.search(sr, RequestOptions.DEFAULT);
-            return terminologyQueryFactory.parseMatchingTerminologiesResponse(response);
-        } catch (Exception e) {
-            logger.error("Failed to resolve terminologies based on contributors", e);
-        }
-        return Collections.emptySet();
+        return indexElasticSearchService.terminologiesMatchingOrganizations(privilegedOrganizations, limitToThese, null);
     }
 }
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.vm.yti.security.AuthenticatedUserProvider;
 import fi.vm.yti.security.YtiUser;
+import fi.vm.yti.terminology.api.TermedMetadataCache;
 import fi.vm.yti.terminology.api.TermedRequester;
 import fi.vm.yti.terminology.api.exception.NodeNotFoundException;
 import fi.vm.yti.terminology.api.exception.VocabularyNotFoundException;
@@ -50,16 +51,19 @@ public class FrontendTermedService {
     private static final Object USER_LOCK = new Object();
 
     private final TermedRequester termedRequester;
+    private final TermedMetadataCache metadataCache;
     private final FrontendGroupManagementService groupManagementService;
     private final AuthenticatedUserProvider userProvider;
     private final AuthorizationManager authorizationManager;
     private final String namespaceRoot;
 
     @Autowired
-    public FrontendTermedService(TermedRequester termedRequester, FrontendGroupManagementService groupManagementService,
+    public FrontendTermedService(TermedRequester termedRequester, TermedMetadataCache metadataCache,
+            FrontendGroupManagementService groupManagementService,
             AuthenticatedUserProvider userProvider, AuthorizationManager authorizationManager,
             @Value("${namespace.root}") String namespaceRoot) {
         this.termedRequester = termedRequester;
+        this.metadataCache = metadataCache;
         this.groupManagementService = groupManagementService;
         this.userProvider = userProvider;
         this.authorizationManager = authorizationManager;
@@ -70,7 +74,14 @@ public class FrontendTermedService {
 
         String namespace = formatNamespace(prefix);
 
-        for (Graph graph : getGraphs()) {
+        // Not from the cache, graphs created through other instances must be seen
+        Parameters params = new Parameters();
+        params.add("max", "-1");
+        List<Graph> graphs = requireNonNull(
+                termedRequester.exchange("/graphs", GET, params, new ParameterizedTypeReference<List<Graph>>() {
+                }));
+
+        for (Graph graph : graphs) {
             if (prefix.equals(graph.getCode()) || namespace.equals(graph.getUri())) {
                 return true;
             }
@@ -98,7 +109,7 @@ public class FrontendTermedService {
 
         params.add("max", "-1");
 
-        List<GenericNodeInlined> result = requireNonNull(termedRequester.exchange("/node-trees", GET, params,
+        List<GenericNodeInlined> result = requireNonNull(termedRequester.exchangeCached(graphId, "/node-trees", params,
                 new ParameterizedTypeReference<List<GenericNodeInlined>>() {
                 }));
 
@@ -348,7 +359,7 @@ public class FrontendTermedService {
         String path = graphId != null ? "/graphs/" + graphId + "/types" : "/types";
 
         return requireNonNull(
-                termedRequester.exchange(path, GET, params, new ParameterizedTypeReference<List<MetaNode>>() {
+                termedRequester.exchangeCached(graphId, path, params, new ParameterizedTypeReference<List<MetaNode>>() {
                 }));
     }
 
@@ -358,12 +369,12 @@ public class FrontendTermedService {
         params.add("max", "-1");
 
         return requireNonNull(
-                termedRequester.exchange("/graphs", GET, params, new ParameterizedTypeReference<List<Graph>>() {
+                termedRequester.exchangeCached(null, "/graphs", params, new ParameterizedTypeReference<List<Graph>>() {
                 }));
     }
 
     public @NotNull Graph getGraph(UUID graphId) {
-        return requireNonNull(termedRequester.exchange("/graphs/" + graphId, GET, Parameters.empty(), Graph.class));
+        return requireNonNull(termedRequester.exchangeCached(graphId, "/graphs/" + graphId, Parameters.empty(), Graph.class));
     }
 
     private @NotNull List<Identifier> getAllNodeIdentifiers(UUID graphId) {
@@ -390,6 +401,7 @@ public class FrontendTermedService {
         Graph graph = new Graph(graphId, code, uri, roles, permissions, properties);
 
         termedRequester.exchange("/graphs", POST, Parameters.empty(), String.class, graph);
+        metadataCache.graphChanged(graphId);
     }
 
     private void updateAndDeleteInternalNodes(GenericDeleteAndSave deleteAndSave, boolean sync, UUID externalUserId) {
@@ -402,10 +414,14 @@ public class FrontendTermedService {
 
         this.termedRequester.exchange("/nodes", POST, params, String.class, deleteAndSave, username.toString(),
                 USER_PASSWORD);
+
+        deleteAndSave.getSave().forEach(node -> metadataCache.nodeChanged(node.getType()));
+        deleteAndSave.getDelete().forEach(node -> metadataCache.nodeChanged(node.getType()));
     }
 
     private void deleteGraph(UUID graphId) {
         termedRequester.exchange("/graphs/" + graphId, HttpMethod.DELETE, Parameters.empty(), String.class);
+        metadataCache.graphChanged(graphId);
     }
 
     private void updateTypes(UUID graphId, List<MetaNode> metaNodes) {
@@ -414,6 +430,7 @@ public class FrontendTermedService {
         params.add("batch", "true");
 
         termedRequester.exchange("/graphs/" + graphId + "/types", POST, params, String.class, metaNodes);
+        metadataCache.graphChanged(graphId);
     }
 
     private void removeTypes(UUID graphId, List<MetaNode> metaNodes) {
@@ -422,6 +439,7 @@ public class FrontendTermedService {
         params.add("batch", "true");
 
         termedRequester.exchange("/graphs/" + graphId + "/types", HttpMethod.DELETE, params, String.class, metaNodes);
+        metadataCache.graphChanged(graphId);
     }
 
     private UUID ensureTermedUser(UUID externalUserId) {
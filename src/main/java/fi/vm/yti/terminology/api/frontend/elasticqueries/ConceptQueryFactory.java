@@ -63,7 +63,7 @@ public class ConceptQueryFactory {
         List<QueryBuilder> mustNotParts = new ArrayList<>();
 
         if (request.getQuery() != null && !request.getQuery().isEmpty()) {
-            mustParts.add(ElasticRequestUtils.buildPrefixSuffixQuery(request.getQuery()).field("label.*"));
+            mustParts.add(ElasticRequestUtils.buildConceptLabelQuery(request.getQuery()));
         }
 
         final boolean directConceptsGiven = request.getConceptId() != null && request.getConceptId().length > 0;
@@ -171,7 +171,7 @@ public class ConceptQueryFactory {
 
                     for (SearchHit hit : hits) {
                         try {
-                            final JsonNode concept = objectMapper.readTree(hit.getSourceAsString());
+                            final JsonNode concept = ElasticRequestUtils.sourceAsJson(objectMapper, hit);
                             final String id = ElasticRequestUtils.getTextValueOrNull(concept, "id");
                             final String uri = ElasticRequestUtils.getTextValueOrNull(concept, "uri");
                             final String status = ElasticRequestUtils.getTextValueOrNull(concept, "status");
@@ -59,7 +59,7 @@ public class DeepConceptQueryFactory {
                                      Set<String> incompleteFromTerminologies) {
 
         // NOTE: In deep concept query the query should always be non-empty.
-        QueryBuilder labelQuery = ElasticRequestUtils.buildPrefixSuffixQuery(query).field("label.*");
+        QueryBuilder labelQuery = ElasticRequestUtils.buildConceptLabelQuery(query);
 
         // Block INCOMPLETE concepts from being shown to users who are not contributors of the terminology. Needed when the terminology itself is in some visible state.
         QueryBuilder withIncompleteHandling = superUser ? labelQuery : QueryBuilders.boolQuery()
@@ -104,7 +104,7 @@ public class DeepConceptQueryFactory {
                     ret.put(terminologyId, Collections.singletonList(hitList));
 
                     for (SearchHit hit : hits.getHits()) {
-                        JsonNode concept = objectMapper.readTree(hit.getSourceAsString());
+                        JsonNode concept = ElasticRequestUtils.sourceAsJson(objectMapper, hit);
                         String conceptId = ElasticRequestUtils.getTextValueOrNull(concept, "id");
                         String conceptUri = ElasticRequestUtils.getTextValueOrNull(concept, "uri");
                         String conceptStatus = ElasticRequestUtils.getTextValueOrNull(concept, "status");
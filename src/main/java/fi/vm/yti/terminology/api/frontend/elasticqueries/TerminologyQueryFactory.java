@@ -3,7 +3,6 @@ package fi.vm.yti.terminology.api.frontend.elasticqueries;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,7 +10,6 @@ import java.util.regex.Pattern;
 
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.TermsQueryBuilder;
@@ -72,7 +70,7 @@ public class TerminologyQueryFactory {
 
         QueryBuilder labelQuery = null;
         if (!query.isEmpty()) {
-            labelQuery = ElasticRequestUtils.buildPrefixSuffixQuery(query).field("properties.prefLabel.value");
+            labelQuery = ElasticRequestUtils.buildTerminologyLabelQuery(query);
         }
 
         TermsQueryBuilder idQuery = null;
@@ -103,48 +101,6 @@ public class TerminologyQueryFactory {
         return sr;
     }
 
-    public SearchRequest createMatchingTerminologiesQuery(Set<String> privilegedOrganizations) {
-        return createMatchingTerminologiesQuery(privilegedOrganizations, null);
-    }
-
-    public SearchRequest createMatchingTerminologiesQuery(final Collection<String> privilegedOrganizations,
-                                                          final Collection<String> limitToThese) {
-        // TODO: When terminology node ID starts to be "the" id then fetchSource(false) and modify parsing, and change id limit to terms query.
-        final QueryBuilder contribQuery = QueryBuilders.termsQuery("references.contributor.id", privilegedOrganizations);
-        QueryBuilder finalQuery = contribQuery;
-        if (limitToThese != null && !limitToThese.isEmpty()) {
-            // QueryBuilders.termsQuery("id", limitToThese);
-            final BoolQueryBuilder limitQuery = QueryBuilders.boolQuery().minimumShouldMatch(1);
-            for (String id : limitToThese) {
-                limitQuery.should(QueryBuilders.matchQuery("type.graph.id", id));
-            }
-            finalQuery = QueryBuilders.boolQuery()
-                .must(contribQuery)
-                .must(limitQuery);
-        }
-
-        SearchRequest sr = new SearchRequest("vocabularies")
-            .source(new SearchSourceBuilder()
-                .size(1000)
-                .query(finalQuery));
-        //.fetchSource(false));
-        return sr;
-    }
-
-    public Set<String> parseMatchingTerminologiesResponse(SearchResponse response) {
-        Set<String> ret = new HashSet<>();
-        for (SearchHit hit : response.getHits()) {
-            try {
-                JsonNode terminology = objectMapper.readTree(hit.getSourceAsString());
-                //ret.add(hit.getId());
-                ret.add(terminology.get("type").get("graph").get("id").textValue());
-            } catch (Exception e) {
-                log.error("Cannot parse matching terminologies response", e);
-            }
-        }
-        return ret;
-    }
-
     public TerminologySearchResponse parseResponse(SearchResponse response,
                                                    TerminologySearchRequest request,
                                                    Map<String, List<DeepSearchHitListDTO<?>>> deepSearchHitList) {
@@ -155,7 +111,7 @@ public class TerminologyQueryFactory {
             ret.setTotalHitCount(hits.getTotalHits());
             Pattern highlightPattern = ElasticRequestUtils.createHighlightPattern(request.getQuery());
             for (SearchHit hit : hits) {
-                JsonNode terminology = objectMapper.readTree(hit.getSourceAsString());
+                JsonNode terminology = ElasticRequestUtils.sourceAsJson(objectMapper, hit);
                 // NOTE: terminology.get("id") would make more sense, but currently concepts contain only graph id => use it here also.
                 String terminologyId = terminology.get("type").get("graph").get("id").textValue();
                 String terminologyCode = ElasticRequestUtils.getTextValueOrNull(terminology, "code");
@@ -1,77 +1,243 @@
 package fi.vm.yti.terminology.api.index;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
-
-import static fi.vm.yti.terminology.api.util.JsonUtils.asStream;
-import static java.util.function.Function.identity;
 
+/**
+ * Nodes of one graph, read from the Termed nodes response as a stream, in a compact form.
+ * <p>
+ * Nodes are addressed by dense int indices. Ids, types and dates are kept in parallel arrays, the values
+ * of each property are kept in one array per property with per node offsets, and references are kept as
+ * int adjacency arrays with per node offsets. Type names, graph ids and language codes are interned.
+ * Referenced nodes missing from the response get indices after the nodes of the response so that their
+ * ids are still available. They have no properties or references, see {@link #isPresent(int)}.
+ */
 final class AllNodesResult {
 
-    private final Map<UUID, JsonNode> nodes;
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private static final Logger log = LoggerFactory.getLogger(AllNodesResult.class);
+    private static final JsonFactory jsonFactory = new JsonFactory();
 
-    AllNodesResult(@NotNull JsonNode node) {
-        this.nodes = asStream(node).collect(Collectors.toMap(n -> UUID.fromString(n.get("id").textValue()), identity()));
-    }
+    private static final String[] PROPERTIES = { "prefLabel", "altLabel", "definition", "status" };
+    static final int PREF_LABEL = 0;
+    static final int ALT_LABEL = 1;
+    static final int DEFINITION = 2;
+    static final int STATUS = 3;
+
+    private static final String[] REFERENCES = { "broader", "prefLabelXl", "altLabelXl" };
+    private static final String[] REFERRERS = { "broader" };
+    static final int BROADER = 0;
+    static final int PREF_LABEL_XL = 1;
+    static final int ALT_LABEL_XL = 2;
+    /** Referrers through broader */
+    static final int NARROWER = 3;
+    private static final int RELATIONS = 4;
+
+    private final int nodeCount;
+    private final long[] idHigh;
+    private final long[] idLow;
+    private final int[] types;
+    private final String[] typeNames;
+    private final int[] graphs;
+    private final UUID[] graphIds;
+    private final String[] uris;
+    private final String[] createdDates;
+    private final String[] lastModifiedDates;
+
+    private final BitSet[] propertyPresent;
+    private final int[][] propertyOffsets;
+    private final String[][] propertyValues;
+    private final int[][] propertyLanguages;
+    private final String[] languages;
 
-    @Nullable JsonNode getNode(@NotNull UUID id) {
-        return getNode(id, null);
+    private final int[][] relationOffsets;
+    private final int[][] relationTargets;
+
+    private AllNodesResult(@NotNull Builder builder, int totalCount) {
+        this.nodeCount = builder.nodeCount;
+        this.idHigh = Arrays.copyOf(builder.idHigh, totalCount);
+        this.idLow = Arrays.copyOf(builder.idLow, totalCount);
+        this.types = Arrays.copyOf(builder.types, totalCount);
+        this.typeNames = builder.typeNames.toArray();
+        this.graphs = Arrays.copyOf(builder.graphs, totalCount);
+        this.graphIds = builder.graphIds.toArray(new UUID[0]);
+        this.uris = Arrays.copyOf(builder.uris, totalCount);
+        this.createdDates = Arrays.copyOf(builder.createdDates, totalCount);
+        this.lastModifiedDates = Arrays.copyOf(builder.lastModifiedDates, totalCount);
+        this.propertyPresent = builder.propertyPresent;
+        this.propertyOffsets = new int[PROPERTIES.length][];
+        this.propertyValues = new String[PROPERTIES.length][];
+        this.propertyLanguages = new int[PROPERTIES.length][];
+        for (int p = 0; p < PROPERTIES.length; p++) {
+            this.propertyOffsets[p] = builder.propertyOffsets[p].toArray();
+            this.propertyValues[p] = builder.propertyValues.get(p).toArray(new String[0]);
+            this.propertyLanguages[p] = builder.propertyLanguages[p].toArray();
+        }
+        this.languages = builder.languages.toArray();
+        this.relationOffsets = new int[RELATIONS][];
+        this.relationTargets = new int[RELATIONS][];
     }
 
-    @Nullable JsonNode getNode(@NotNull UUID id, @Nullable String expectedType) {
+    /**
+     * Reads a JSON array of Termed nodes without building a tree of the whole response.
+     */
+    static @NotNull AllNodesResult read(@NotNull InputStream json) throws IOException {
 
-        JsonNode node = this.nodes.get(id);
+        Builder builder = new Builder();
 
-        if (node == null) {
-            log.warn("No node found for id: " + id);
-            return null;
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array of nodes");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                builder.readNode(parser);
+            }
         }
 
-        String type = type(node);
+        return builder.build();
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return false if the node is only referenced and was not in the response
+     */
+    boolean isPresent(int node) {
+        return node < nodeCount;
+    }
+
+    @NotNull UUID getId(int node) {
+        return new UUID(idHigh[node], idLow[node]);
+    }
+
+    @NotNull String getType(int node) {
+        return typeNames[types[node]];
+    }
 
-        if (type == null) {
-            log.warn("Cannot resolve type for node: " + id);
-            return null;
+    boolean typeIs(int node, @NotNull String... types) {
+        String type = getType(node);
+        for (String t : types) {
+            if (t.equals(type)) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        if (expectedType != null && !type.equals(expectedType)) {
-            log.warn("Expected type " + expectedType + " for node " + id + " but was " + type);
-            return null;
+    @Nullable UUID getGraphId(int node) {
+        return graphs[node] >= 0 ? graphIds[graphs[node]] : null;
+    }
+
+    @Nullable String getUri(int node) {
+        return uris[node];
+    }
+
+    @Nullable String getCreatedDate(int node) {
+        return createdDates[node];
+    }
+
+    @Nullable String getLastModifiedDate(int node) {
+        return lastModifiedDates[node];
+    }
+
+    boolean hasProperty(int node, int property) {
+        return propertyPresent[property].get(node);
+    }
+
+    /**
+     * @return the first value of the property, null if there is none
+     */
+    @Nullable String getSinglePropertyValue(int node, int property) {
+        int[] offsets = propertyOffsets[property];
+        return offsets[node] < offsets[node + 1] ? propertyValues[property][offsets[node]] : null;
+    }
+
+    /**
+     * @return values of the property by language
+     */
+    @NotNull Map<String, List<String>> getLocalizable(int node, int property) {
+        Map<String, List<String>> localizable = new LinkedHashMap<>();
+        addLocalizable(node, property, localizable);
+        return localizable;
+    }
+
+    /**
+     * Adds the values of the property by language to the given map.
+     */
+    void addLocalizable(int node, int property, @NotNull Map<String, List<String>> localizable) {
+        int[] offsets = propertyOffsets[property];
+        String[] values = propertyValues[property];
+        int[] valueLanguages = propertyLanguages[property];
+        for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+            localizable.computeIfAbsent(languages[valueLanguages[i]], lang -> new ArrayList<>(1)).add(values[i]);
         }
+    }
 
-        return node;
+    /**
+     * @param relation one of {@link #BROADER}, {@link #PREF_LABEL_XL}, {@link #ALT_LABEL_XL} and {@link #NARROWER}
+     * @return indices of the related nodes
+     */
+    @NotNull int[] getRelated(int node, int relation) {
+        int[] offsets = relationOffsets[relation];
+        return Arrays.copyOfRange(relationTargets[relation], offsets[node], offsets[node + 1]);
     }
 
-    @NotNull List<UUID> getConceptNodeIds() {
-        return this.nodes.values().stream()
-                .filter(AllNodesResult::isConceptNode)
-                .map(node -> UUID.fromString(node.get("id").textValue()))
-                .collect(Collectors.toList());
+    /**
+     * @return indices of the concept nodes
+     */
+    @NotNull int[] getConceptNodes() {
+        return nodesOfType("Concept");
     }
 
-    @NotNull Optional<UUID> getVocabularyNodeId() {
-        return this.nodes.values().stream()
-                .filter(AllNodesResult::isVocabularyNode)
-                .map(node -> UUID.fromString(node.get("id").textValue()))
-                .findFirst();
+    /**
+     * @return index of the vocabulary node, -1 if there is none
+     */
+    int getVocabularyNode() {
+        for (int node = 0; node < nodeCount; node++) {
+            if (typeIs(node, VocabularyType.TerminologicalVocabulary.name(), VocabularyType.Vocabulary.name())) {
+                return node;
+            }
+        }
+        return -1;
     }
 
-    protected static boolean isConceptNode(@NotNull JsonNode jsonObj) {
-        return typeIs(jsonObj, "Concept");
+    private @NotNull int[] nodesOfType(@NotNull String type) {
+        int typeIndex = Arrays.asList(typeNames).indexOf(type);
+        int count = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (types[node] == typeIndex) {
+                count++;
+            }
+        }
+        int[] nodes = new int[count];
+        for (int node = 0, i = 0; node < nodeCount; node++) {
+            if (types[node] == typeIndex) {
+                nodes[i++] = node;
+            }
+        }
+        return nodes;
     }
 
-    private static boolean isVocabularyNode(@NotNull JsonNode jsonObj) {
-        return typeIs(jsonObj, VocabularyType.TerminologicalVocabulary.name(), VocabularyType.Vocabulary.name());
+    protected static boolean isConceptNode(@NotNull JsonNode jsonObj) {
+        return typeIs(jsonObj, "Concept");
     }
 
     private @Nullable static String type(@NotNull JsonNode jsonObj) {
@@ -104,4 +270,384 @@ final class AllNodesResult {
 
         return false;
     }
+
+    /**
+     * Collects the nodes while the response is read. References are kept as ids until all nodes
+     * have been read and are then resolved to node indices.
+     */
+    private static final class Builder {
+
+        private int nodeCount;
+        private long[] idHigh = new long[256];
+        private long[] idLow = new long[256];
+        private int[] types = new int[256];
+        private int[] graphs = new int[256];
+        private String[] uris = new String[256];
+        private String[] createdDates = new String[256];
+        private String[] lastModifiedDates = new String[256];
+
+        private final Interned typeNames = new Interned();
+        private final List<UUID> graphIds = new ArrayList<>();
+        private final Interned languages = new Interned();
+
+        private final BitSet[] propertyPresent = new BitSet[PROPERTIES.length];
+        private final IntArray[] propertyOffsets = new IntArray[PROPERTIES.length];
+        private final List<List<String>> propertyValues = new ArrayList<>(PROPERTIES.length);
+        private final IntArray[] propertyLanguages = new IntArray[PROPERTIES.length];
+
+        private final IntArray[] relationOffsets = new IntArray[RELATIONS];
+        private final LongArray[] relationIds = new LongArray[RELATIONS];
+        private final IntArray[] relationTypes = new IntArray[RELATIONS];
+
+        private Builder() {
+            for (int p = 0; p < PROPERTIES.length; p++) {
+                propertyPresent[p] = new BitSet();
+                propertyOffsets[p] = new IntArray();
+                propertyOffsets[p].add(0);
+                propertyValues.add(new ArrayList<>());
+                propertyLanguages[p] = new IntArray();
+            }
+            for (int r = 0; r < RELATIONS; r++) {
+                relationOffsets[r] = new IntArray();
+                relationOffsets[r].add(0);
+                relationIds[r] = new LongArray();
+                relationTypes[r] = new IntArray();
+            }
+        }
+
+        /**
+         * Reads the node object the parser is at. Nodes without id or type are skipped.
+         */
+        private void readNode(@NotNull JsonParser parser) throws IOException {
+
+            int node = nodeCount;
+            ensureCapacity(node + 1);
+
+            String id = null;
+            String[] type = new String[2];
+            uris[node] = null;
+            createdDates[node] = null;
+            lastModifiedDates[node] = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "id":
+                        id = parser.getValueAsString();
+                        break;
+                    case "type":
+                        readType(parser, type);
+                        break;
+                    case "uri":
+                        uris[node] = parser.getValueAsString();
+                        break;
+                    case "createdDate":
+                        createdDates[node] = parser.getValueAsString();
+                        break;
+                    case "lastModifiedDate":
+                        lastModifiedDates[node] = parser.getValueAsString();
+                        break;
+                    case "properties":
+                        readProperties(parser, node);
+                        break;
+                    case "references":
+                        readReferences(parser, REFERENCES, 0);
+                        break;
+                    case "referrers":
+                        readReferences(parser, REFERRERS, NARROWER);
+                        break;
+                    default:
+                        if (value.isStructStart()) {
+                            parser.skipChildren();
+                        }
+                }
+            }
+
+            if (id == null || type[0] == null) {
+                log.warn("Skipping node without id or type: " + id);
+                discard(node);
+                return;
+            }
+
+            UUID uuid = UUID.fromString(id);
+            idHigh[node] = uuid.getMostSignificantBits();
+            idLow[node] = uuid.getLeastSignificantBits();
+            types[node] = typeNames.indexOf(type[0]);
+            graphs[node] = type[1] != null ? graphIndex(UUID.fromString(type[1])) : -1;
+
+            for (int p = 0; p < PROPERTIES.length; p++) {
+                propertyOffsets[p].add(propertyValues.get(p).size());
+            }
+            for (int r = 0; r < RELATIONS; r++) {
+                relationOffsets[r].add(relationTypes[r].size);
+            }
+            nodeCount++;
+        }
+
+        /**
+         * Drops the properties and references read for a skipped node.
+         */
+        private void discard(int node) {
+            for (int p = 0; p < PROPERTIES.length; p++) {
+                propertyPresent[p].clear(node);
+                int size = propertyOffsets[p].get(node);
+                List<String> values = propertyValues.get(p);
+                values.subList(size, values.size()).clear();
+                propertyLanguages[p].size = size;
+            }
+            for (int r = 0; r < RELATIONS; r++) {
+                int size = relationOffsets[r].get(node);
+                relationIds[r].size = size * 2;
+                relationTypes[r].size = size;
+            }
+        }
+
+        private void readProperties(@NotNull JsonParser parser, int node) throws IOException {
+
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                int property = indexOf(PROPERTIES, parser.getCurrentName());
+                JsonToken value = parser.nextToken();
+                if (property < 0 || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                propertyPresent[property].set(node);
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    String lang = null;
+                    String text = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("lang".equals(field)) {
+                            lang = parser.getValueAsString();
+                        } else if ("value".equals(field)) {
+                            text = parser.getValueAsString();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (lang != null) {
+                        propertyValues.get(property).add(text);
+                        propertyLanguages[property].add(languages.indexOf(lang));
+                    }
+                }
+            }
+        }
+
+        private void readReferences(@NotNull JsonParser parser, @NotNull String[] names, int firstRelation) throws IOException {
+
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                int name = indexOf(names, parser.getCurrentName());
+                JsonToken value = parser.nextToken();
+                if (name < 0 || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                int relation = firstRelation + name;
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    String id = null;
+                    String[] type = new String[2];
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("id".equals(field)) {
+                            id = parser.getValueAsString();
+                        } else if ("type".equals(field)) {
+                            readType(parser, type);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (id != null) {
+                        UUID uuid = UUID.fromString(id);
+                        relationIds[relation].add(uuid.getMostSignificantBits());
+                        relationIds[relation].add(uuid.getLeastSignificantBits());
+                        relationTypes[relation].add(type[0] != null ? typeNames.indexOf(type[0]) : -1);
+                    }
+                }
+            }
+        }
+
+        private @NotNull AllNodesResult build() {
+
+            Map<UUID, Integer> indices = new HashMap<>(nodeCount * 2);
+            for (int node = 0; node < nodeCount; node++) {
+                indices.put(new UUID(idHigh[node], idLow[node]), node);
+            }
+
+            int[][] targets = new int[RELATIONS][];
+            int totalCount = nodeCount;
+
+            for (int r = 0; r < RELATIONS; r++) {
+                long[] ids = relationIds[r].values;
+                int[] referenceTypes = relationTypes[r].values;
+                targets[r] = new int[relationTypes[r].size];
+                for (int i = 0; i < targets[r].length; i++) {
+                    UUID id = new UUID(ids[i * 2], ids[i * 2 + 1]);
+                    Integer target = indices.get(id);
+                    if (target == null) {
+                        // Referenced node outside the response, keep its id and the type of the reference
+                        target = totalCount++;
+                        ensureCapacity(totalCount);
+                        idHigh[target] = ids[i * 2];
+                        idLow[target] = ids[i * 2 + 1];
+                        types[target] = referenceTypes[i] >= 0 ? referenceTypes[i] : typeNames.indexOf("");
+                        graphs[target] = -1;
+                        uris[target] = null;
+                        createdDates[target] = null;
+                        lastModifiedDates[target] = null;
+                        indices.put(id, target);
+                    }
+                    targets[r][i] = target;
+                }
+            }
+
+            // Referenced nodes have no properties or references of their own
+            for (int node = nodeCount; node < totalCount; node++) {
+                for (int p = 0; p < PROPERTIES.length; p++) {
+                    propertyOffsets[p].add(propertyValues.get(p).size());
+                }
+                for (int r = 0; r < RELATIONS; r++) {
+                    relationOffsets[r].add(targets[r].length);
+                }
+            }
+
+            AllNodesResult result = new AllNodesResult(this, totalCount);
+            for (int r = 0; r < RELATIONS; r++) {
+                result.relationOffsets[r] = relationOffsets[r].toArray();
+                result.relationTargets[r] = targets[r];
+            }
+            return result;
+        }
+
+        private int graphIndex(@NotNull UUID graphId) {
+            int index = graphIds.indexOf(graphId);
+            if (index < 0) {
+                graphIds.add(graphId);
+                index = graphIds.size() - 1;
+            }
+            return index;
+        }
+
+        private void ensureCapacity(int size) {
+            if (size > idHigh.length) {
+                int capacity = Math.max(size, idHigh.length * 2);
+                idHigh = Arrays.copyOf(idHigh, capacity);
+                idLow = Arrays.copyOf(idLow, capacity);
+                types = Arrays.copyOf(types, capacity);
+                graphs = Arrays.copyOf(graphs, capacity);
+                uris = Arrays.copyOf(uris, capacity);
+                createdDates = Arrays.copyOf(createdDates, capacity);
+                lastModifiedDates = Arrays.copyOf(lastModifiedDates, capacity);
+            }
+        }
+    }
+
+    /**
+     * Reads type id and graph id of a type object into the two element array.
+     */
+    private static void readType(@NotNull JsonParser parser, @NotNull String[] type) throws IOException {
+
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("id".equals(field)) {
+                type[0] = parser.getValueAsString();
+            } else if ("graph".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String graphField = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("id".equals(graphField)) {
+                        type[1] = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static int indexOf(@NotNull String[] names, @NotNull String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Small table of distinct strings, such as type names and language codes, addressed by index.
+     */
+    private static final class Interned {
+
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        private int indexOf(@NotNull String value) {
+            Integer index = indices.get(value);
+            if (index == null) {
+                index = values.size();
+                values.add(value);
+                indices.put(value, index);
+            }
+            return index;
+        }
+
+        private @NotNull String[] toArray() {
+            return values.toArray(new String[0]);
+        }
+    }
+
+    private static final class IntArray {
+
+        private int[] values = new int[256];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int get(int index) {
+            return values[index];
+        }
+
+        private @NotNull int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class LongArray {
+
+        private long[] values = new long[256];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
 }
@@ -0,0 +1,46 @@
+package fi.vm.yti.terminology.api.index;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Counts of bulk documents by outcome, shared by all bulk writers.
+ */
+final class BulkMetrics {
+
+    private final Counter indexed;
+    private final Counter retried;
+    private final Counter dropped;
+    private final Counter unchanged;
+
+    BulkMetrics(@NotNull MeterRegistry meterRegistry) {
+        this.indexed = counter(meterRegistry, "indexed");
+        this.retried = counter(meterRegistry, "retried");
+        this.dropped = counter(meterRegistry, "dropped");
+        this.unchanged = counter(meterRegistry, "unchanged");
+    }
+
+    void indexed(int documents) {
+        indexed.increment(documents);
+    }
+
+    void retried(int documents) {
+        retried.increment(documents);
+    }
+
+    void dropped(int documents) {
+        dropped.increment(documents);
+    }
+
+    void unchanged(int documents) {
+        unchanged.increment(documents);
+    }
+
+    private static @NotNull Counter counter(@NotNull MeterRegistry meterRegistry, @NotNull String result) {
+        return Counter.builder("terminology.index.bulk.documents")
+                .description("Documents sent to elasticsearch with bulk requests")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,482 @@
+package fi.vm.yti.terminology.api.index;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fi.vm.yti.terminology.api.exception.ElasticEndpointException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes bulk actions into a byte buffer as they are added and sends the buffer to Elasticsearch
+ * whenever it reaches the byte or document limit, so that only a few bulk bodies are held in memory.
+ * Up to {@code maxConcurrentRequests} bulk requests are in flight at a time, after which adding
+ * blocks until one of them completes.
+ * <p>
+ * Bulk responses are checked item by item. Items rejected because Elasticsearch is overloaded are sent
+ * again with exponential backoff until the retry budget runs out, other failed items are dropped.
+ * <p>
+ * When given {@link ConceptHashes}, documents whose content hash has not changed since they were last
+ * written are skipped, and the hash is stored in the {@value ConceptHashes#FIELD} field of the written
+ * document and in the hashes once Elasticsearch has accepted it.
+ * <p>
+ * Not thread safe, actions are expected to be added from a single thread.
+ */
+final class BulkWriter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkWriter.class);
+
+    private static final String RESPONSE_FILTER = "errors,items.*.status,items.*.error.type,items.*.error.reason";
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+    private static final long NO_HASH = 0;
+    private static final long DELETED = -1;
+
+    private final RestClient esRestClient;
+    private final ObjectMapper objectMapper;
+    private final int maxBytes;
+    private final int maxDocuments;
+    private final int maxConcurrentRequests;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+    private final ScheduledExecutorService retryScheduler;
+    private final BulkMetrics metrics;
+    private final boolean waitForRefresh;
+    private final ConceptHashes hashes;
+
+    private final Semaphore requestsInFlight;
+    private final AtomicInteger indexedDocuments = new AtomicInteger();
+    private final AtomicInteger droppedDocuments = new AtomicInteger();
+    private int unchangedDocuments;
+    private final AtomicReference<IOException> connectionFailure = new AtomicReference<>();
+
+    private BulkBuffer buffer;
+    private JsonGenerator generator;
+
+    BulkWriter(@NotNull RestClient esRestClient,
+               @NotNull ObjectMapper objectMapper,
+               int maxBytes,
+               int maxDocuments,
+               int maxConcurrentRequests,
+               int maxRetries,
+               long retryDelayMillis,
+               @NotNull ScheduledExecutorService retryScheduler,
+               @NotNull BulkMetrics metrics,
+               boolean waitForRefresh,
+               @Nullable ConceptHashes hashes) {
+        this.esRestClient = esRestClient;
+        this.objectMapper = objectMapper;
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxDocuments = Math.max(1, maxDocuments);
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryDelayMillis = Math.max(1, retryDelayMillis);
+        this.retryScheduler = retryScheduler;
+        this.metrics = metrics;
+        this.waitForRefresh = waitForRefresh;
+        this.hashes = hashes;
+        this.requestsInFlight = new Semaphore(this.maxConcurrentRequests);
+    }
+
+    /**
+     * Adds an index action, or skips it if the document is unchanged. With hashes the content hash field is
+     * set in the given document.
+     */
+    void index(@NotNull String index, @NotNull String type, @NotNull String id, @NotNull JsonNode document) {
+        long hash = NO_HASH;
+        if (hashes != null && document instanceof ObjectNode) {
+            hash = ConceptHashes.hash(document);
+            if (hashes.isUnchanged(id, hash)) {
+                unchangedDocuments++;
+                metrics.unchanged(1);
+                return;
+            }
+            ((ObjectNode) document).put(ConceptHashes.FIELD, ConceptHashes.toHex(hash));
+        }
+        try {
+            JsonGenerator generator = generator();
+            buffer.startItem(id, hash);
+            writeActionLine(generator, "index", index, type, id);
+            objectMapper.writeTree(generator, document);
+            generator.writeRaw('\n');
+            added();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void delete(@NotNull String index, @NotNull String type, @NotNull String id) {
+        try {
+            JsonGenerator generator = generator();
+            buffer.startItem(id, DELETED);
+            writeActionLine(generator, "delete", index, type, id);
+            added();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sends the remaining actions and waits until all bulk requests, including retries, have completed.
+     *
+     * @throws ElasticEndpointException if some bulk request could not be sent to Elasticsearch
+     */
+    @Override
+    public void close() {
+        flush();
+        try {
+            requestsInFlight.acquire(maxConcurrentRequests);
+            requestsInFlight.release(maxConcurrentRequests);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for bulk requests", e);
+        }
+        IOException failure = connectionFailure.get();
+        if (failure != null) {
+            throw new ElasticEndpointException(failure);
+        }
+    }
+
+    int getIndexedDocuments() {
+        return indexedDocuments.get();
+    }
+
+    int getDroppedDocuments() {
+        return droppedDocuments.get();
+    }
+
+    int getUnchangedDocuments() {
+        return unchangedDocuments;
+    }
+
+    private @NotNull JsonGenerator generator() throws IOException {
+        if (generator == null) {
+            buffer = new BulkBuffer(Math.min(maxBytes, 64 * 1024));
+            generator = objectMapper.getFactory().createGenerator(buffer);
+            generator.setRootValueSeparator(null);
+        }
+        return generator;
+    }
+
+    private static void writeActionLine(@NotNull JsonGenerator generator,
+                                        @NotNull String action,
+                                        @NotNull String index,
+                                        @NotNull String type,
+                                        @NotNull String id) throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectFieldStart(action);
+        generator.writeStringField("_index", index);
+        generator.writeStringField("_type", type);
+        generator.writeStringField("_id", id);
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private void added() throws IOException {
+        generator.flush();
+        if (buffer.items() >= maxDocuments || buffer.size() >= maxBytes) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (generator == null) {
+            return;
+        }
+        try {
+            generator.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        BulkBuffer body = buffer;
+        generator = null;
+        buffer = null;
+
+        try {
+            requestsInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for bulk requests", e);
+        }
+        send(body, 0);
+    }
+
+    /**
+     * Sends the body and handles its response. The request permit is held until all items
+     * of the body are either indexed or dropped.
+     */
+    private void send(@NotNull BulkBuffer body, int attempt) {
+        Request request = new Request("POST", "/_bulk");
+        request.addParameter("filter_path", RESPONSE_FILTER);
+        if (waitForRefresh) {
+            request.addParameter("refresh", "wait_for");
+        }
+        request.setEntity(body.toEntity());
+
+        long start = System.currentTimeMillis();
+        esRestClient.performRequestAsync(request, new ResponseListener() {
+
+            @Override
+            public void onSuccess(Response response) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Bulk request of " + body.items() + " documents (" + body.size() + " bytes) took " + (System.currentTimeMillis() - start) + "ms");
+                }
+                ItemResults results;
+                try (InputStream content = response.getEntity().getContent();
+                     JsonParser parser = objectMapper.getFactory().createParser(content)) {
+                    results = parseItemResults(parser, body.items());
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Unable to read bulk response", e);
+                    retryOrDrop(body, attempt, null);
+                    return;
+                }
+                handleItemResults(body, attempt, results);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (e instanceof ResponseException) {
+                    int status = ((ResponseException) e).getResponse().getStatusLine().getStatusCode();
+                    log.warn("Bulk request of " + body.items() + " documents failed with status " + status);
+                    if (isRetryable(status)) {
+                        retryOrDrop(body, attempt, null);
+                    } else {
+                        droppedAll(body, e.getMessage());
+                        requestsInFlight.release();
+                    }
+                } else {
+                    log.warn("Bulk request of " + body.items() + " documents failed", e);
+                    retryOrDrop(body, attempt, e instanceof IOException ? (IOException) e : new IOException(e));
+                }
+            }
+        });
+    }
+
+    private void handleItemResults(@NotNull BulkBuffer body, int attempt, @NotNull ItemResults results) {
+        BulkBuffer retry = null;
+        int indexed = 0;
+        int dropped = 0;
+        for (int item = 0; item < body.items(); item++) {
+            int status = results.statuses[item];
+            if (isSuccess(status)) {
+                indexed++;
+                written(body, item);
+            } else if (isRetryable(status) && attempt < maxRetries) {
+                if (retry == null) {
+                    retry = new BulkBuffer(Math.min(body.size(), 64 * 1024));
+                }
+                body.copyItemTo(item, retry);
+            } else {
+                dropped++;
+                forget(body, item);
+            }
+        }
+
+        indexedDocuments.addAndGet(indexed);
+        metrics.indexed(indexed);
+        if (dropped > 0) {
+            dropped(dropped, results.firstError);
+        }
+        if (retry != null) {
+            scheduleRetry(retry, attempt);
+        } else {
+            requestsInFlight.release();
+        }
+    }
+
+    private void retryOrDrop(@NotNull BulkBuffer body, int attempt, @Nullable IOException failure) {
+        if (attempt < maxRetries) {
+            scheduleRetry(body, attempt);
+        } else {
+            if (failure != null) {
+                connectionFailure.compareAndSet(null, failure);
+            }
+            droppedAll(body, failure != null ? failure.getMessage() : null);
+            requestsInFlight.release();
+        }
+    }
+
+    private void scheduleRetry(@NotNull BulkBuffer body, int attempt) {
+        long delay = Math.min(MAX_RETRY_DELAY_MILLIS, retryDelayMillis << attempt);
+        delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        metrics.retried(body.items());
+        log.info("Retrying " + body.items() + " bulk documents in " + delay + "ms (retry " + (attempt + 1) + "/" + maxRetries + ")");
+        try {
+            retryScheduler.schedule(() -> send(body, attempt + 1), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            droppedAll(body, "retry rejected");
+            requestsInFlight.release();
+        }
+    }
+
+    private void written(@NotNull BulkBuffer body, int item) {
+        if (hashes != null) {
+            long hash = body.itemHash(item);
+            if (hash == DELETED) {
+                hashes.remove(body.itemId(item));
+            } else if (hash != NO_HASH) {
+                hashes.put(body.itemId(item), hash);
+            }
+        }
+    }
+
+    private void forget(@NotNull BulkBuffer body, int item) {
+        // Content of a document whose write failed is unknown
+        if (hashes != null) {
+            hashes.remove(body.itemId(item));
+        }
+    }
+
+    private void droppedAll(@NotNull BulkBuffer body, @Nullable String reason) {
+        for (int item = 0; item < body.items(); item++) {
+            forget(body, item);
+        }
+        dropped(body.items(), reason);
+    }
+
+    private void dropped(int documents, @Nullable String reason) {
+        droppedDocuments.addAndGet(documents);
+        metrics.dropped(documents);
+        log.error("Dropped " + documents + " bulk documents" + (reason != null ? ": " + reason : ""));
+    }
+
+    private static boolean isSuccess(int status) {
+        // 404 is a delete of a document which is already gone
+        return (status >= 200 && status < 300) || status == 404;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Reads item statuses from a bulk response, in the same order as the items in the request.
+     * Items missing from the response have status 0.
+     */
+    static @NotNull ItemResults parseItemResults(@NotNull JsonParser parser, int items) throws IOException {
+        int[] statuses = new int[items];
+        String firstError = null;
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Unexpected bulk response");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("errors".equals(field) && value == JsonToken.VALUE_FALSE) {
+                Arrays.fill(statuses, 200);
+                return new ItemResults(statuses, null);
+            } else if ("items".equals(field) && value == JsonToken.START_ARRAY) {
+                int item = 0;
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    // { "<action>": { "status": 201, "error": { ... } } }
+                    parser.nextToken();
+                    parser.nextToken();
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("status".equals(name) && item < items) {
+                            statuses[item] = parser.getIntValue();
+                        } else if ("error".equals(name) && firstError == null) {
+                            firstError = parser.readValueAsTree().toString();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    parser.nextToken();
+                    item++;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new ItemResults(statuses, firstError);
+    }
+
+    static final class ItemResults {
+
+        final int[] statuses;
+        @Nullable
+        final String firstError;
+
+        private ItemResults(int[] statuses, @Nullable String firstError) {
+            this.statuses = statuses;
+            this.firstError = firstError;
+        }
+    }
+
+    /**
+     * Byte buffer which remembers where each item starts and which is handed over to the request
+     * entity without copying.
+     */
+    private static final class BulkBuffer extends ByteArrayOutputStream {
+
+        private int[] itemOffsets = new int[64];
+        private String[] itemIds = new String[64];
+        private long[] itemHashes = new long[64];
+        private int items;
+
+        private BulkBuffer(int initialSize) {
+            super(initialSize);
+        }
+
+        private void startItem(@NotNull String id, long hash) {
+            if (items == itemOffsets.length) {
+                itemOffsets = Arrays.copyOf(itemOffsets, items * 2);
+                itemIds = Arrays.copyOf(itemIds, items * 2);
+                itemHashes = Arrays.copyOf(itemHashes, items * 2);
+            }
+            itemIds[items] = id;
+            itemHashes[items] = hash;
+            itemOffsets[items++] = count;
+        }
+
+        private @NotNull String itemId(int item) {
+            return itemIds[item];
+        }
+
+        private long itemHash(int item) {
+            return itemHashes[item];
+        }
+
+        private int items() {
+            return items;
+        }
+
+        private void copyItemTo(int item, @NotNull BulkBuffer target) {
+            int start = itemOffsets[item];
+            int end = item + 1 < items ? itemOffsets[item + 1] : count;
+            target.startItem(itemIds[item], itemHashes[item]);
+            target.write(buf, start, end - start);
+        }
+
+        private @NotNull NByteArrayEntity toEntity() {
+            return new NByteArrayEntity(buf, 0, count, ContentType.APPLICATION_JSON);
+        }
+    }
+}
@@ -110,39 +110,58 @@ final class Concept {
         return createFromTermedNodes(json, prefLabelXlReferences, altLabelXlReferences, vocabulary);
     }
 
-    static @NotNull Concept createFromAllNodeResult(@NotNull UUID conceptId, @NotNull UUID vocabularyId, @NotNull AllNodesResult allNodesResult) {
+    static @NotNull Concept createFromAllNodeResult(int concept, @NotNull Vocabulary vocabulary, @NotNull AllNodesResult nodes) {
 
-        JsonNode conceptJson = requireNonNull(allNodesResult.getNode(conceptId, "Concept"));
-        JsonNode vocabularyJson = requireNonNull(allNodesResult.getNode(vocabularyId));        
-        Vocabulary vocabulary = Vocabulary.createFromExtJson(vocabularyJson);
+        Map<String, List<String>> label =
+                nodes.hasProperty(concept, AllNodesResult.PREF_LABEL)
+                        ? nodes.getLocalizable(concept, AllNodesResult.PREF_LABEL)
+                        : localizableFromTerms(nodes, vocabulary, nodes.getRelated(concept, AllNodesResult.PREF_LABEL_XL));
 
-        JsonNode references = conceptJson.get("references");
+        Map<String, List<String>> altLabel =
+                nodes.hasProperty(concept, AllNodesResult.ALT_LABEL)
+                        ? nodes.getLocalizable(concept, AllNodesResult.ALT_LABEL)
+                        : localizableFromTerms(nodes, vocabulary, nodes.getRelated(concept, AllNodesResult.ALT_LABEL_XL));
+
+        List<UUID> broaderIds = getConceptIds(nodes, nodes.getRelated(concept, AllNodesResult.BROADER));
+        List<UUID> narrowerIds = getConceptIds(nodes, nodes.getRelated(concept, AllNodesResult.NARROWER));
 
-        List<JsonNode> prefLabelXLReferences =
-                getReferenceIdsFromTermedReferences(references, "prefLabelXl", "Term").stream()
-                        .map(refId -> {
-                            JsonNode term = allNodesResult.getNode(refId, "Term");
+        return new Concept(nodes.getId(concept), vocabulary, label, altLabel,
+                nodes.getLocalizable(concept, AllNodesResult.DEFINITION),
+                nodes.getSinglePropertyValue(concept, AllNodesResult.STATUS), broaderIds, narrowerIds,
+                nodes.getCreatedDate(concept), nodes.getLastModifiedDate(concept), nodes.getUri(concept));
+    }
 
-                            if (term == null)
-                                throw new BrokenTermedDataLinkException(vocabulary, refId);
+    private static @NotNull Map<String, List<String>> localizableFromTerms(@NotNull AllNodesResult nodes,
+                                                                           @NotNull Vocabulary vocabulary,
+                                                                           @NotNull int[] terms) {
 
-                            return term;
-                        })
-                        .collect(toList());
+        Map<String, List<String>> result = new HashMap<>();
 
-        List<JsonNode> altLabelXLReferences =
-                getReferenceIdsFromTermedReferences(references, "altLabelXl", "Term").stream()
-                        .map(refId -> {
-                            JsonNode term = allNodesResult.getNode(refId, "Term");
+        for (int term : terms) {
+            if (!nodes.typeIs(term, "Term")) {
+                continue;
+            }
 
-                            if (term == null)
-                                throw new BrokenTermedDataLinkException(vocabulary, refId);
+            if (!nodes.isPresent(term))
+                throw new BrokenTermedDataLinkException(vocabulary, nodes.getId(term));
 
-                            return term;
-                        })
-                        .collect(toList());
+            nodes.addLocalizable(term, AllNodesResult.PREF_LABEL, result);
+        }
 
-        return createFromTermedNodes(conceptJson, prefLabelXLReferences, altLabelXLReferences, vocabulary);
+        return result;
+    }
+
+    private static @NotNull List<UUID> getConceptIds(@NotNull AllNodesResult nodes, @NotNull int[] related) {
+
+        List<UUID> ids = new ArrayList<>(related.length);
+
+        for (int node : related) {
+            if (nodes.typeIs(node, "Concept")) {
+                ids.add(nodes.getId(node));
+            }
+        }
+
+        return ids;
     }
 
     static @NotNull Concept createFromIndex(ObjectMapper mapper, @NotNull JsonNode json) {
@@ -173,6 +192,10 @@ final class Concept {
         }
     }
 
+    @NotNull UUID getId() {
+        return id;
+    }
+
     @NotNull String getDocumentId() {
         return formDocumentId(vocabulary.getGraphId(), id);
     }
@@ -215,6 +238,8 @@ final class Concept {
         output.set("label", localizableToJson(mapper, label));
         output.set("altLabel", localizableToJson(mapper, altLabel));
         output.set("sortByLabel", localizableToJson(mapper, getSingleLabelAsLower()));
+        output.set("labelPlain", localizableToPlainJson(mapper, label));
+        output.set("definitionPlain", localizableToPlainJson(mapper, definition));
 
         if (createdDate != null) {
             output.put("created", createdDate);
@@ -0,0 +1,257 @@
+package fi.vm.yti.terminology.api.index;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content hashes of the concept documents written to one physical concept index, used to skip writing
+ * documents which have not changed.
+ * <p>
+ * Hashes are kept per graph in open addressing tables of primitive longs, keyed by a 64 bit digest of
+ * the concept id, so that all hashes of a graph can be forgotten at once when its documents are changed
+ * by other means than bulk writes.
+ */
+final class ConceptHashes {
+
+    static final String FIELD = "contentHash";
+
+    private final Map<UUID, GraphHashes> graphs = new ConcurrentHashMap<>();
+
+    /**
+     * @return true if the document was last written with the given content hash
+     */
+    boolean isUnchanged(@NotNull String documentId, long hash) {
+        DocumentKey key = DocumentKey.parse(documentId);
+        if (key == null) {
+            return false;
+        }
+        GraphHashes graph = graphs.get(key.graphId);
+        return graph != null && graph.get(key.conceptKey) == hash;
+    }
+
+    void put(@NotNull String documentId, long hash) {
+        DocumentKey key = DocumentKey.parse(documentId);
+        if (key != null) {
+            graphs.computeIfAbsent(key.graphId, id -> new GraphHashes()).put(key.conceptKey, hash);
+        }
+    }
+
+    void remove(@NotNull String documentId) {
+        DocumentKey key = DocumentKey.parse(documentId);
+        if (key != null) {
+            GraphHashes graph = graphs.get(key.graphId);
+            if (graph != null) {
+                graph.remove(key.conceptKey);
+            }
+        }
+    }
+
+    void removeGraph(@NotNull UUID graphId) {
+        graphs.remove(graphId);
+    }
+
+    void removeConcept(@NotNull UUID conceptId) {
+        long conceptKey = conceptKey(conceptId);
+        graphs.values().forEach(graph -> graph.remove(conceptKey));
+    }
+
+    int size() {
+        return graphs.values().stream().mapToInt(GraphHashes::size).sum();
+    }
+
+    /**
+     * Stable 64 bit hash of a document, independent of the order of object fields.
+     */
+    static long hash(@NotNull JsonNode document) {
+        MessageDigest digest = md5();
+        update(digest, document);
+        byte[] bytes = digest.digest();
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (bytes[i] & 0xff);
+        }
+        // Zero stands for a missing hash
+        return hash != 0 ? hash : 1;
+    }
+
+    static @NotNull String toHex(long hash) {
+        return Long.toHexString(hash);
+    }
+
+    static long fromHex(@NotNull String hex) {
+        return Long.parseUnsignedLong(hex, 16);
+    }
+
+    private static void update(@NotNull MessageDigest digest, @NotNull JsonNode node) {
+        if (node.isObject()) {
+            List<String> fieldNames = new ArrayList<>(node.size());
+            node.fieldNames().forEachRemaining(fieldNames::add);
+            fieldNames.sort(null);
+            digest.update((byte) '{');
+            for (String fieldName : fieldNames) {
+                if (!FIELD.equals(fieldName)) {
+                    updateString(digest, fieldName);
+                    update(digest, node.get(fieldName));
+                }
+            }
+            digest.update((byte) '}');
+        } else if (node.isArray()) {
+            digest.update((byte) '[');
+            for (Iterator<JsonNode> it = node.elements(); it.hasNext(); ) {
+                update(digest, it.next());
+            }
+            digest.update((byte) ']');
+        } else {
+            digest.update((byte) node.getNodeType().ordinal());
+            updateString(digest, node.asText());
+        }
+    }
+
+    private static void updateString(@NotNull MessageDigest digest, @NotNull String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static @NotNull MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long conceptKey(@NotNull UUID conceptId) {
+        long key = conceptId.getMostSignificantBits() ^ conceptId.getLeastSignificantBits();
+        return key != GraphHashes.EMPTY ? key : 1;
+    }
+
+    private static final class DocumentKey {
+
+        private final UUID graphId;
+        private final long conceptKey;
+
+        private DocumentKey(UUID graphId, long conceptKey) {
+            this.graphId = graphId;
+            this.conceptKey = conceptKey;
+        }
+
+        /**
+         * Parses a document id formed by {@link Concept#formDocumentId}, null if it is not one.
+         */
+        private static DocumentKey parse(@NotNull String documentId) {
+            int separator = documentId.indexOf('/');
+            if (separator < 0) {
+                return null;
+            }
+            try {
+                return new DocumentKey(UUID.fromString(documentId.substring(0, separator)),
+                        conceptKey(UUID.fromString(documentId.substring(separator + 1))));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Linear probing long to long map, {@link #EMPTY} is not a valid key and absent keys map to {@link #EMPTY}.
+     */
+    private static final class GraphHashes {
+
+        private static final long EMPTY = 0;
+
+        private long[] keys = new long[16];
+        private long[] values = new long[16];
+        private int size;
+
+        private synchronized long get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slot(key, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return EMPTY;
+        }
+
+        private synchronized void put(long key, long value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] = value;
+        }
+
+        private synchronized void remove(long key) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != key) {
+                if (keys[slot] == EMPTY) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            // Shift following entries of the probe sequence back so that lookups do not stop at the gap
+            int gap = slot;
+            for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+                int home = slot(keys[next], mask);
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+            }
+            keys[gap] = EMPTY;
+            values[gap] = EMPTY;
+            size--;
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[capacity];
+            values = new long[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = slot(oldKeys[i], mask);
+                    while (keys[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long mixed = key * 0x9E3779B97F4A7C15L;
+            return (int) (mixed ^ (mixed >>> 32)) & mask;
+        }
+    }
+}
@@ -1,22 +1,23 @@
 package fi.vm.yti.terminology.api.index;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import fi.vm.yti.terminology.api.exception.ElasticEndpointException;
+import fi.vm.yti.terminology.api.exception.TermedEndpointException;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.nio.entity.NStringEntity;
 import org.elasticsearch.action.search.SearchRequest;
-import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Response;
 import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestClient;
-import org.elasticsearch.client.RestHighLevelClient;
-import org.elasticsearch.client.RequestOptions;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -24,13 +25,22 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PreDestroy;
 import java.io.*;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -49,20 +59,45 @@ public class IndexElasticSearchService {
 
     private static final Logger log = LoggerFactory.getLogger(IndexElasticSearchService.class);
 
+    private static final String MAPPING_VERSION = "mappingVersion";
+
+    public static final String CONCEPT_INDEX = "concepts";
+    public static final String VOCABULARY_INDEX = "vocabularies";
+    private static final String CONCEPT_TYPE = "concept";
+    private static final String VOCABULARY_TYPE = "vocabulary";
+
     private final RestClient esRestClient;
-    private final RestHighLevelClient esHiLvClient;
 
     private final String createIndexFilename;
     private final String createMappingsFilename;
     private final String indexName;
-    private List<String> indexNames = new ArrayList<>();
 
     private final String indexMappingType;
     private final boolean deleteIndexOnAppRestart;
+    private final int reindexGraphConcurrency;
+    private final int reindexBuildThreads;
+    private final int reindexBulkQueueSize;
+    private final int bulkMaxBytes;
+    private final int bulkMaxDocuments;
+    private final int bulkConcurrency;
+    private final int bulkMaxRetries;
+    private final long bulkRetryDelay;
+    private final ScheduledExecutorService bulkRetryScheduler;
+    private final BulkMetrics bulkMetrics;
+    private final ReindexWatermarks watermarks;
+    private final long watermarkOverlapSeconds;
+    // Content hashes by concept alias or by physical concept index while it is being built
+    private final Map<String, ConceptHashes> conceptHashes = new ConcurrentHashMap<>();
 
     private final IndexTermedService termedApiService;
     private final ObjectMapper objectMapper;
 
+    private final TerminologyContributors terminologyContributors;
+    private final SearchResultCache searchResultCache;
+
+    private final Set<UUID> graphsChangedDuringReindex = ConcurrentHashMap.newKeySet();
+    private volatile boolean reindexInProgress;
+
     @Autowired
     public IndexElasticSearchService(@Value("${search.host.url}") String searchHostUrl,
             @Value("${search.host.port}") int searchHostPort, @Value("${search.host.scheme}") String searchHostScheme,
@@ -71,121 +106,436 @@ public class IndexElasticSearchService {
             @Value("${search.index.name}") String indexName,
             @Value("${search.index.mapping.type}") String indexMappingType,
             @Value("${search.index.deleteIndexOnAppRestart}") boolean deleteIndexOnAppRestart,
-            IndexTermedService termedApiService, ObjectMapper objectMapper, final RestHighLevelClient esHiLvClient) {
+            @Value("${search.reindex.graphConcurrency:4}") int reindexGraphConcurrency,
+            @Value("${search.reindex.buildThreads:0}") int reindexBuildThreads,
+            @Value("${search.reindex.bulkQueueSize:8}") int reindexBulkQueueSize,
+            @Value("${search.bulk.maxBytes:5242880}") int bulkMaxBytes,
+            @Value("${search.bulk.maxDocuments:1000}") int bulkMaxDocuments,
+            @Value("${search.bulk.concurrency:2}") int bulkConcurrency,
+            @Value("${search.bulk.maxRetries:5}") int bulkMaxRetries,
+            @Value("${search.bulk.retryDelay:200}") long bulkRetryDelay,
+            @Value("${search.reindex.watermarkFile:reindex-watermarks.json}") String watermarkFile,
+            @Value("${search.reindex.watermarkOverlap:600}") long watermarkOverlapSeconds,
+            @Value("${search.contributors.maxAge:600}") long contributorsMaxAgeSeconds,
+            @Value("${search.cache.settleMillis:2000}") long settleMillis,
+            IndexTermedService termedApiService, ObjectMapper objectMapper,
+            SearchResultCache searchResultCache,
+            MeterRegistry meterRegistry) {
         this.createIndexFilename = createIndexFilename;
         this.createMappingsFilename = createMappingsFilename;
         this.indexName = indexName;
         this.indexMappingType = indexMappingType;
         this.deleteIndexOnAppRestart = deleteIndexOnAppRestart;
+        this.reindexGraphConcurrency = reindexGraphConcurrency;
+        this.reindexBuildThreads = reindexBuildThreads;
+        this.reindexBulkQueueSize = reindexBulkQueueSize;
+        this.bulkMaxBytes = bulkMaxBytes;
+        this.bulkMaxDocuments = bulkMaxDocuments;
+        this.bulkConcurrency = bulkConcurrency;
+        this.bulkMaxRetries = bulkMaxRetries;
+        this.bulkRetryDelay = bulkRetryDelay;
+        this.bulkRetryScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("bulk-retry-"));
+        this.bulkMetrics = new BulkMetrics(meterRegistry);
+        this.watermarks = new ReindexWatermarks(Paths.get(watermarkFile), objectMapper);
+        this.watermarkOverlapSeconds = watermarkOverlapSeconds;
+        this.conceptHashes.put(CONCEPT_INDEX, new ConceptHashes());
+        this.terminologyContributors = new TerminologyContributors(this::loadTerminologyContributors,
+                settleMillis, contributorsMaxAgeSeconds * 1000);
+        this.searchResultCache = searchResultCache;
         this.termedApiService = termedApiService;
         this.objectMapper = objectMapper;
         this.esRestClient = RestClient.builder(new HttpHost(searchHostUrl, searchHostPort, searchHostScheme)).build();
-        this.esHiLvClient = esHiLvClient; // Use that for resource api
     }
 
-    public void initIndex() {
+    /**
+     * Creates the indices or rebuilds them if they are missing or their settings or mappings have changed.
+     *
+     * @return true if the existing indices were kept, they then lack changes made while the application was down
+     */
+    public boolean initIndex() {
 
         String[] indexNames = indexName.split(",");
         String[] indexMaps = createMappingsFilename.split(",");
-        String[] indexMappingTypes = indexMappingType.split(",");
         if (indexNames.length != indexMaps.length) {
             log.error("InitIndex, configuration error. Mismatching index-names / mappings");
-            return;
+            return false;
         }
+        String[] indexMappingTypes = indexMappingType.split(",");
+        boolean indexMissing = false;
+        boolean mappingChanged = false;
         for (int x = 0; x < indexNames.length; x++) {
-            log.info("Init index =" + indexNames[x] + " - " + indexMaps[x] + " - " + indexMappingTypes[x]);
-            initIndex(indexNames[x], indexMaps[x], indexMappingTypes[x]);
+            String index = indexNames[x].trim();
+            log.info("Init index =" + index);
+            if (deleteIndexOnAppRestart) {
+                indicesBehindAlias(index).forEach(this::deleteIndex);
+            }
+            if (!indexExists(index)) {
+                indexMissing = true;
+            } else if (!isMappingCurrent(index, indexMaps[x], indexMappingTypes[x])) {
+                log.info("Settings or mapping of index " + index + " have changed since it was created");
+                mappingChanged = true;
+            }
+        }
+        if (indexMissing || mappingChanged) {
+            reindex();
+            return false;
+        } else {
+            loadConceptHashes();
+            return true;
         }
     }
 
-    public void initIndex(String index, String mapping, String mappingType) {
-
-        if (deleteIndexOnAppRestart) {
-            deleteIndex(index);
+    /**
+     * Builds complete new indices next to the live ones and switches the aliases to them in one atomic step.
+     * Searches are served from the old indices until the switch, and updates received from Termed during
+     * the build are written through the aliases to the old indices and replayed to the new ones.
+     */
+    public synchronized void reindex() {
+        log.info("Starting reindexing task..");
+        Instant start = Instant.now();
+        Map<String, String> newIndices = createVersionedIndices("_" + System.currentTimeMillis());
+        if (newIndices == null) {
+            log.error("Reindexing aborted, unable to create new indices");
+            return;
         }
+        String conceptIndex = newIndices.get(CONCEPT_INDEX);
+        String vocabularyIndex = newIndices.get(VOCABULARY_INDEX);
 
-        if (!indexExists(index) && createIndex(index) && createMapping(index, mapping, mappingType)) {
-            doFullIndexing();
+        graphsChangedDuringReindex.clear();
+        reindexInProgress = true;
+        boolean switched = false;
+        try {
+            List<UUID> graphIds = doFullIndexing(conceptIndex, vocabularyIndex);
+            reindexChangedGraphs(conceptIndex, vocabularyIndex);
+            refreshIndices(newIndices.values());
+            switched = switchAliases(newIndices);
+            if (switched) {
+                terminologyContributors.invalidate();
+                searchResultCache.indexChanged(CONCEPT_INDEX);
+                searchResultCache.indexChanged(VOCABULARY_INDEX);
+                conceptHashes.put(CONCEPT_INDEX, conceptHashes.get(conceptIndex));
+                watermarks.reset(conceptIndex, graphIds, start);
+                watermarks.save();
+            }
+        } finally {
+            reindexInProgress = false;
+            conceptHashes.remove(conceptIndex);
+            if (!switched) {
+                log.warn("Reindexing failed, removing new indices " + newIndices.values());
+                newIndices.values().forEach(this::deleteIndex);
+            }
         }
-    }
-
-    public void reindex() {
-        log.info("Starting reindexing task..");
-        // Clean vocabularies
-        deleteAllDocumentsFromNamedIndex("vocabularies");
-        this.deleteAllDocumentsFromIndex();
-        this.doFullIndexing();
+        // Changes which were written to the old indices while switching
+        updateChangedGraphs();
         log.info("Finished reindexing!");
     }
 
-    private void doFullIndexing() {
-        reindexVocabularies();
+    private @NotNull List<UUID> doFullIndexing(@NotNull String conceptIndex, @NotNull String vocabularyIndex) {
+        reindexVocabularies(vocabularyIndex);
         // Index concepts from all vocabularies
-        termedApiService.fetchAllAvailableGraphIds().forEach(graphId -> reindexGraph(graphId, false));
+        List<UUID> graphIds = termedApiService.fetchAllAvailableGraphIds();
+        ConceptHashes hashes = new ConceptHashes();
+        conceptHashes.put(conceptIndex, hashes);
+        BulkWriter writer = createBulkWriter(false, hashes);
+        try {
+            ReindexPipeline pipeline = new ReindexPipeline(termedApiService, objectMapper,
+                    (graphId, documents) -> documents.forEach((id, document) -> writer.index(conceptIndex, CONCEPT_TYPE, id, document)),
+                    reindexGraphConcurrency, reindexBuildThreads, reindexBulkQueueSize);
+            pipeline.run(graphIds);
+        } finally {
+            writer.close();
+        }
+        log.info("Indexed " + writer.getIndexedDocuments() + " concept documents to " + conceptIndex + ", dropped " + writer.getDroppedDocuments());
+        return graphIds;
     }
 
-    private void reindexVocabularies() {
-        // Index vocabularies
+    /**
+     * Applies changes made in Termed since the previous full or incremental reindex to the live indices.
+     * <p>
+     * For each graph only nodes modified after its watermark, less {@code watermarkOverlapSeconds} to allow
+     * for clock skew and late commits, are fetched from Termed. Their concepts are updated together with
+     * broader and narrower neighbours, and concepts missing from Termed are deleted by comparing concept
+     * ids. Falls back to a full reindex if there are no watermarks for the live concept index.
+     */
+    public synchronized void incrementalReindex() {
+
+        List<String> liveIndices = indicesBehindAlias(CONCEPT_INDEX);
+
+        if (liveIndices.size() != 1 || !watermarks.isFor(liveIndices.get(0))) {
+            log.info("No reindex watermarks for concept index " + liveIndices + ", reindexing everything");
+            reindex();
+            return;
+        }
+
+        log.info("Starting incremental reindexing task..");
         long start = System.currentTimeMillis();
-        // index also all vocabulary-objects
-        List<JsonNode> vocabularies = new ArrayList<>();
-        // Get graphs
-        List<UUID> graphs = termedApiService.fetchAllAvailableVocabularyGraphIds();
-        // Get vocabularies under graphs
-        graphs.forEach(o -> {
-            JsonNode jn = termedApiService.getTerminologyVocabularyNode(o);
+        Instant now = Instant.now();
+        int changedGraphs = 0;
+
+        try {
+            List<UUID> graphIds = termedApiService.fetchAllAvailableGraphIds();
+
+            for (UUID graphId : new ArrayList<>(watermarks.getGraphIds())) {
+                if (!graphIds.contains(graphId)) {
+                    log.info("Graph " + graphId + " removed from Termed, deleting its documents");
+                    deleteDocumentsFromIndexByGraphId(graphId, CONCEPT_INDEX);
+                    deleteVocabularyDocumentsByGraphId(graphId, VOCABULARY_INDEX);
+                    watermarks.remove(graphId);
+                    changedGraphs++;
+                }
+            }
 
-            // resolve organization info from references.contributor
-            if (jn != null) {
-                vocabularies.add(jn);
+            for (UUID graphId : graphIds) {
+                try {
+                    if (incrementalReindexGraph(graphId, now)) {
+                        changedGraphs++;
+                    }
+                } catch (TermedEndpointException | ElasticEndpointException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    log.error("Incremental reindexing of graph " + graphId + " failed, skipping it", e);
+                }
             }
+        } finally {
+            watermarks.save();
+        }
+
+        long end = System.currentTimeMillis();
+        log.info("Finished incremental reindexing of " + changedGraphs + " changed graphs in " + (end - start) + "ms");
+    }
+
+    /**
+     * @return true if anything in the graph changed
+     */
+    private boolean incrementalReindexGraph(@NotNull UUID graphId, @NotNull Instant now) {
+
+        Instant mark = watermarks.get(graphId);
+
+        if (mark == null) {
+            log.info("New graph " + graphId + ", indexing all of it");
+            reindexGivenVocabulary(graphId, VOCABULARY_INDEX);
+            reindexGraph(graphId, false, CONCEPT_INDEX);
+            watermarks.set(graphId, now);
+            return true;
+        }
+
+        ModifiedNodes modified = termedApiService.fetchNodesModifiedSince(graphId, mark.minusSeconds(watermarkOverlapSeconds));
+        Set<UUID> conceptIds = termedApiService.fetchConceptIds(graphId);
+        Set<UUID> indexedConceptIds = conceptIdsInIndex(graphId);
+
+        List<UUID> deletedIds = indexedConceptIds.stream().filter(id -> !conceptIds.contains(id)).collect(toList());
+        Set<UUID> updatedIds = new HashSet<>(modified.getConceptIds());
+        conceptIds.stream().filter(id -> !indexedConceptIds.contains(id)).forEach(updatedIds::add);
+        updatedIds.removeAll(deletedIds);
+
+        if (!modified.getVocabularyIds().isEmpty() || !updatedIds.isEmpty()) {
+            updateIndexAfterUpdate(new AffectedNodes(graphId, new ArrayList<>(modified.getVocabularyIds()), new ArrayList<>(updatedIds)));
+        }
+
+        if (!deletedIds.isEmpty()) {
+            updateIndexAfterDelete(new AffectedNodes(graphId, emptyList(), deletedIds));
+        }
+
+        if (modified.getLastModified() != null) {
+            watermarks.set(graphId, modified.getLastModified());
+        }
+
+        boolean changed = !modified.getVocabularyIds().isEmpty() || !updatedIds.isEmpty() || !deletedIds.isEmpty();
+        if (changed) {
+            log.info("Graph " + graphId + ": " + modified.getVocabularyIds().size() + " vocabularies and "
+                    + updatedIds.size() + " concepts changed, " + deletedIds.size() + " concepts deleted");
+        }
+        return changed;
+    }
+
+    private @NotNull Set<UUID> conceptIdsInIndex(@NotNull UUID graphId) {
+
+        Set<UUID> ids = new HashSet<>();
+        String query = "{\"match\": {\"vocabulary.id\": \"" + graphId + "\"}}";
+
+        scroll(CONCEPT_INDEX, query, "false", "hits.hits._id", hit -> {
+            String documentId = hit.get("_id").textValue();
+            ids.add(UUID.fromString(documentId.substring(documentId.indexOf('/') + 1)));
         });
-        if (vocabularies.isEmpty()) {
-            return; // Nothing to do
+
+        return ids;
+    }
+
+    /**
+     * Reads the content hashes stored in the live concept documents, so that documents which have not
+     * changed since the previous run are not rewritten.
+     */
+    private void loadConceptHashes() {
+
+        long start = System.currentTimeMillis();
+        ConceptHashes hashes = new ConceptHashes();
+
+        try {
+            scroll(CONCEPT_INDEX, "{\"match_all\": {}}", "[\"" + ConceptHashes.FIELD + "\"]", "hits.hits._id,hits.hits._source", hit -> {
+                String hash = hit.path("_source").path(ConceptHashes.FIELD).textValue();
+                if (hash != null) {
+                    hashes.put(hit.get("_id").textValue(), ConceptHashes.fromHex(hash));
+                }
+            });
+        } catch (IllegalStateException e) {
+            log.warn("Unable to load concept content hashes, all concepts are written on next update", e);
+            return;
         }
-        ObjectMapper mapper = new ObjectMapper();
-        List<String> indexLines = new ArrayList<>();
-        vocabularies.forEach(o -> {
+
+        conceptHashes.put(CONCEPT_INDEX, hashes);
+        log.info("Loaded " + hashes.size() + " concept content hashes in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Scrolls through all hits of the search and passes the source of each hit to the consumer. Only one
+     * page of hits, sized by the search request, is held in memory at a time.
+     *
+     * @throws IllegalStateException if the search fails
+     */
+    public void scrollSources(@NotNull SearchRequest sr, @NotNull Consumer<JsonNode> sourceConsumer) {
+        HttpEntity body = new NStringEntity(sr.source() != null ? sr.source().toString() : "{}", ContentType.APPLICATION_JSON);
+        scroll(String.join(",", sr.indices()), body, "hits.hits._source", hit -> sourceConsumer.accept(hit.get("_source")));
+    }
+
+    private void scroll(@NotNull String index, @NotNull String query, @NotNull String source, @NotNull String hitFilter, @NotNull Consumer<JsonNode> hitConsumer) {
+        HttpEntity body = new NStringEntity("{\"size\": 5000, \"_source\": " + source + ", \"query\": " + query + "}",
+                ContentType.APPLICATION_JSON);
+        scroll(index, body, hitFilter, hitConsumer);
+    }
+
+    private void scroll(@NotNull String index, @NotNull HttpEntity body, @NotNull String hitFilter, @NotNull Consumer<JsonNode> hitConsumer) {
+
+        String filterPath = "_scroll_id," + hitFilter;
+        Map<String, String> params = new HashMap<>();
+        params.put("scroll", "1m");
+        params.put("filter_path", filterPath);
+
+        Response response = alsoUnsuccessful(
+                () -> esRestClient.performRequest("POST", "/" + index + "/_search", params, body));
+        if (!isSuccess(response)) {
+            throw new IllegalStateException("Unable to search elasticsearch index " + index + ": " + responseContentAsString(response));
+        }
+        JsonNode page = responseContentAsJson(objectMapper, response);
+        String scrollId = page.path("_scroll_id").textValue();
+
+        try {
+            while (page.path("hits").path("hits").size() > 0) {
+                page.path("hits").path("hits").forEach(hitConsumer);
+                HttpEntity scroll = new NStringEntity("{\"scroll\": \"1m\", \"scroll_id\": \"" + scrollId + "\"}", ContentType.APPLICATION_JSON);
+                Response next = alsoUnsuccessful(
+                        () -> esRestClient.performRequest("POST", "/_search/scroll", singletonMap("filter_path", filterPath), scroll));
+                // An expired scroll context or a failure would otherwise end the scroll with partial results
+                if (!isSuccess(next)) {
+                    throw new IllegalStateException("Unable to scroll elasticsearch index " + index + ": " + responseContentAsString(next));
+                }
+                page = responseContentAsJson(objectMapper, next);
+                scrollId = page.path("_scroll_id").asText(scrollId);
+            }
+        } finally {
+            if (scrollId != null) {
+                String clearedScrollId = scrollId;
+                HttpEntity clear = new NStringEntity("{\"scroll_id\": \"" + clearedScrollId + "\"}", ContentType.APPLICATION_JSON);
+                alsoUnsuccessful(() -> esRestClient.performRequest("DELETE", "/_search/scroll", emptyMap(), clear));
+            }
+        }
+    }
+
+    /**
+     * Indexes graphs changed during the build again from scratch. Only for indices which are not live yet.
+     */
+    private void reindexChangedGraphs(@NotNull String conceptIndex, @NotNull String vocabularyIndex) {
+        Set<UUID> changedGraphIds = new HashSet<>(graphsChangedDuringReindex);
+        graphsChangedDuringReindex.removeAll(changedGraphIds);
+        for (UUID graphId : changedGraphIds) {
+            log.info("Graph " + graphId + " changed during reindexing, indexing it again to " + conceptIndex);
             try {
-                String line = "{\"index\":{\"_index\": \"vocabularies\", \"_type\": \"vocabulary" + "\", \"_id\":"
-                        + o.get("id") + "}}\n" + mapper.writeValueAsString(o) + "\n";
-                indexLines.add(line);
-                if (log.isDebugEnabled()) {
-                    log.debug("reindex line:" + line);
+                deleteDocumentsFromIndexByGraphId(graphId, conceptIndex);
+                deleteVocabularyDocumentsByGraphId(graphId, vocabularyIndex);
+                reindexGivenVocabulary(graphId, vocabularyIndex);
+                reindexGraph(graphId, false, conceptIndex);
+            } catch (RuntimeException e) {
+                log.warn("Unable to reindex changed graph " + graphId, e);
+            }
+        }
+    }
+
+    /**
+     * Updates graphs changed while the aliases were switched in the live indices. Unlike
+     * {@link #reindexChangedGraphs(String, String)} nothing is deleted before the graph has been fetched
+     * from Termed, and then only the concepts missing from Termed, so searches never see a graph without
+     * its documents.
+     */
+    private void updateChangedGraphs() {
+        Set<UUID> changedGraphIds = new HashSet<>(graphsChangedDuringReindex);
+        graphsChangedDuringReindex.removeAll(changedGraphIds);
+        for (UUID graphId : changedGraphIds) {
+            log.info("Graph " + graphId + " changed while switching indices, updating it in " + CONCEPT_INDEX);
+            try {
+                JsonNode vocabularyNode = termedApiService.getTerminologyVocabularyNode(graphId);
+
+                if (vocabularyNode == null) {
+                    log.info("Graph " + graphId + " removed from Termed, deleting its documents");
+                    deleteDocumentsFromIndexByGraphId(graphId, CONCEPT_INDEX);
+                    deleteVocabularyDocumentsByGraphId(graphId, VOCABULARY_INDEX);
+                    continue;
                 }
-            } catch (JsonProcessingException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+
+                List<Concept> concepts = termedApiService.getAllConceptsForGraph(graphId);
+                Set<UUID> conceptIds = concepts.stream().map(Concept::getId).collect(Collectors.toSet());
+                List<UUID> deletedIds = conceptIdsInIndex(graphId).stream()
+                        .filter(id -> !conceptIds.contains(id))
+                        .collect(toList());
+
+                BulkWriter writer = createBulkWriter(false);
+                try {
+                    writer.index(VOCABULARY_INDEX, VOCABULARY_TYPE, vocabularyNode.get("id").textValue(),
+                            Vocabulary.toVocabularyDocument(objectMapper, vocabularyNode));
+                } finally {
+                    writer.close();
+                    terminologyContributors.invalidate();
+                    indexChanged(VOCABULARY_INDEX);
+                }
+                bulkUpdateAndDeleteDocumentsToIndex(graphId, concepts, deletedIds, false, CONCEPT_INDEX);
+            } catch (RuntimeException e) {
+                log.warn("Unable to update changed graph " + graphId, e);
             }
-        });
-        String index = indexLines.stream().collect(Collectors.joining("\n"));
-        String delete = "";
-        // Content type changed for elastic search 6.x
-        HttpEntity entity = new NStringEntity(index + delete,
-                ContentType.create("application/json", StandardCharsets.UTF_8));
-        // ContentType.create("application/json", StandardCharsets.UTF_8));
-        // ContentType.create("application/x-ndjson", StandardCharsets.UTF_8));
-        Map<String, String> params = new HashMap<>();
-        params.put("pretty", "true");
-        params.put("refresh", "wait_for");
-        if (log.isDebugEnabled()) {
-            log.debug("Request:" + entity);
         }
-        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", "/_bulk", params, entity));
+    }
+
+    private void rememberChangeDuringReindex(@NotNull UUID graphId) {
+        if (reindexInProgress) {
+            graphsChangedDuringReindex.add(graphId);
+        }
+    }
+
+    private void reindexVocabularies(@NotNull String index) {
+        // Index vocabularies
+        long start = System.currentTimeMillis();
+        // Get graphs
+        List<UUID> graphs = termedApiService.fetchAllAvailableVocabularyGraphIds();
+        // Get vocabularies under graphs and write them to the index as they are fetched
+        BulkWriter writer = createBulkWriter(true);
+        try {
+            graphs.forEach(o -> {
+                JsonNode jn = termedApiService.getTerminologyVocabularyNode(o);
+                if (jn != null) {
+                    writer.index(index, VOCABULARY_TYPE, jn.get("id").textValue(), Vocabulary.toVocabularyDocument(objectMapper, jn));
+                }
+            });
+        } finally {
+            writer.close();
+            terminologyContributors.invalidate();
+            indexChanged(index);
+        }
         long end = System.currentTimeMillis();
-        if (log.isDebugEnabled()) {
-            log.debug("Response:" + response + "\n Response status line" + response.getStatusLine());
-        }      
-        if (isSuccess(response)) {
-            log.info("Successfully indexed " + vocabularies.size()+" terminologies in "+(end-start)+"ms");
+        if (writer.getDroppedDocuments() == 0) {
+            log.info("Successfully indexed " + writer.getIndexedDocuments() + " terminologies in " + (end - start) + "ms");
         } else {
-            log.warn("Unable to add or update document to elasticsearch index: " + vocabularies.size()+" took "+(end-start)+"ms");
-            log.info(responseContentAsString(response));
+            log.warn("Unable to add or update " + writer.getDroppedDocuments() + " terminologies to elasticsearch index, took " + (end - start) + "ms");
         }
     }
 
-    private boolean reindexGivenVocabulary(UUID vocId) {
-        boolean rv = true;
+    private boolean reindexGivenVocabulary(UUID vocId, @NotNull String vocabularyIndex) {
         long start = System.currentTimeMillis();
         // Get vocabulary
         JsonNode jn = termedApiService.getTerminologyVocabularyNode(vocId);
@@ -194,34 +544,23 @@ public class IndexElasticSearchService {
             return false;
         }
 
-        ObjectMapper mapper = new ObjectMapper();
+        BulkWriter writer = createBulkWriter(true);
         try {
-            String index = "{\"index\":{\"_index\": \"vocabularies\", \"_type\": \"" + "vocabulary" + "\", \"_id\":"
-                    + jn.get("id") + "}}\n" + mapper.writeValueAsString(jn) + "\n";
-            String delete = "";
-            // CHANGED CONTENT TYPE FOR ELASTIC 6.X
-            HttpEntity entity = new NStringEntity(index + delete,
-                    ContentType.create("application/json", StandardCharsets.UTF_8));
-            Map<String, String> params = new HashMap<>();
-
-            params.put("pretty", "true");
-            params.put("refresh", "wait_for");
-
-            Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", "/_bulk", params, entity));
+            writer.index(vocabularyIndex, VOCABULARY_TYPE, jn.get("id").textValue(), Vocabulary.toVocabularyDocument(objectMapper, jn));
+        } finally {
+            writer.close();
+            terminologyContributors.invalidate();
+            indexChanged(vocabularyIndex);
+        }
 
-            long end = System.currentTimeMillis();
-            if (isSuccess(response)) {
-                log.info("Successfully added/updated documents to elasticsearch index: " + vocId.toString()+" in "+(end-start)+"ms" );
-            } else {
-                log.warn("Unable to add or update document to elasticsearch index: " + vocId.toString()+" in "+(end-start)+"ms");
-                log.info(responseContentAsString(response));
-                rv = false;
-            }        
-        } catch (JsonProcessingException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        long end = System.currentTimeMillis();
+        if (writer.getDroppedDocuments() == 0) {
+            log.info("Successfully added/updated documents to elasticsearch index: " + vocId.toString() + " in " + (end - start) + "ms");
+            return true;
+        } else {
+            log.warn("Unable to add or update document to elasticsearch index: " + vocId.toString() + " in " + (end - start) + "ms");
+            return false;
         }
-        return rv;
     }
 
     void updateIndexAfterUpdate(@NotNull AffectedNodes nodes) {
@@ -231,12 +570,13 @@ public class IndexElasticSearchService {
             log.debug("updateIndexAfterUpdate() " + nodes.toString() + " hasVocabulary:" + nodes.hasVocabulary());
         }
         UUID voc = nodes.getGraphId();
+        rememberChangeDuringReindex(voc);
         if (log.isDebugEnabled()) {
             log.debug("Vocabulary=" + voc + " vocabulary count=" + nodes.getVocabularyIds().size());
         }
         // if treshold is , make full reindex
         if (nodes.hasVocabulary() && nodes.getVocabularyIds().size() > fullReindexNodeCountThreshold) {
-            reindexVocabularies();
+            reindexVocabularies(VOCABULARY_INDEX);
         } else {
             if (log.isDebugEnabled()) {
                 log.debug("partial update!");
@@ -246,13 +586,16 @@ public class IndexElasticSearchService {
                 // reindexVocabularies();
                 nodes.getVocabularyIds().forEach(id -> {
                     log.info("reindexVocabulary:" + id);
-                    reindexGivenVocabulary(voc);
+                    reindexGivenVocabulary(voc, VOCABULARY_INDEX);
                 });
             }
         }
-        if (nodes.hasVocabulary() || nodes.getConceptsIds().size() > fullReindexNodeCountThreshold) {
-            reindexGraph(nodes.getGraphId(), true);
-        } else {
+        if (nodes.hasVocabulary()) {
+            updateVocabularyInConcepts(nodes.getGraphId(), CONCEPT_INDEX);
+        }
+        if (nodes.getConceptsIds().size() > fullReindexNodeCountThreshold) {
+            reindexGraph(nodes.getGraphId(), true, CONCEPT_INDEX);
+        } else if (!nodes.getConceptsIds().isEmpty()) {
             List<Concept> updatedConcepts = termedApiService.getConcepts(nodes.getGraphId(), nodes.getConceptsIds());
             List<Concept> conceptsBeforeUpdate = getConceptsFromIndex(nodes.getGraphId(), nodes.getConceptsIds());
             List<Concept> possiblyUpdatedConcepts = termedApiService.getConcepts(nodes.getGraphId(),
@@ -260,22 +603,23 @@ public class IndexElasticSearchService {
             List<Concept> updateToIndex = Stream.concat(updatedConcepts.stream(), possiblyUpdatedConcepts.stream())
                     .collect(toList());
 
-            bulkUpdateAndDeleteDocumentsToIndex(nodes.getGraphId(), updateToIndex, emptyList(), true);
+            bulkUpdateAndDeleteDocumentsToIndex(nodes.getGraphId(), updateToIndex, emptyList(), true, CONCEPT_INDEX);
         }
     }
 
     void updateIndexAfterDelete(@NotNull AffectedNodes nodes) {
 
         int fullReindexNodeCountThreshold = 20;
+        rememberChangeDuringReindex(nodes.getGraphId());
 
         if (nodes.hasVocabulary()) {
             // First delete concepts and then
-            deleteDocumentsFromIndexByGraphId(nodes.getGraphId());
+            deleteDocumentsFromIndexByGraphId(nodes.getGraphId(), CONCEPT_INDEX);
             // In case of treshold overcome, make full reindex
             if (nodes.hasVocabulary()) {
                 nodes.getVocabularyIds().forEach(id -> {
                     // Delete actual vocabulary-object
-                    deleteDocumentsFromNamedIndexByGraphId(id, "vocabularies");
+                    deleteDocumentsFromNamedIndexByGraphId(id, VOCABULARY_INDEX);
                 });
             }
         } else {
@@ -284,13 +628,59 @@ public class IndexElasticSearchService {
                     broaderAndNarrowerIds(singletonList(conceptsBeforeDelete)));
 
             bulkUpdateAndDeleteDocumentsToIndex(nodes.getGraphId(), possiblyUpdatedConcepts, nodes.getConceptsIds(),
-                    true);
+                    true, CONCEPT_INDEX);
             nodes.getConceptsIds().forEach(id -> {
-                deleteDocumentsFromNamedIndexByGraphId(id, "concepts");
+                deleteDocumentsFromNamedIndexByGraphId(id, CONCEPT_INDEX);
             });
         }
     }
 
+    /**
+     * Replaces the vocabulary embedded in the concept documents of the graph with a scripted update by
+     * query, without fetching the concepts from Termed.
+     */
+    private void updateVocabularyInConcepts(@NotNull UUID graphId, @NotNull String index) {
+
+        Vocabulary vocabulary = termedApiService.getVocabulary(graphId);
+
+        if (vocabulary == null) {
+            return;
+        }
+
+        ObjectNode body = objectMapper.createObjectNode();
+        body.putObject("query").putObject("term").put("vocabulary.id", graphId.toString());
+        ObjectNode script = body.putObject("script");
+        script.put("lang", "painless");
+        // The stored content hash no longer matches the document
+        script.put("source", "ctx._source.vocabulary = params.vocabulary; ctx._source.remove('" + ConceptHashes.FIELD + "')");
+        script.putObject("params").set("vocabulary", vocabulary.toElasticSearchObject(objectMapper));
+
+        ConceptHashes hashes = conceptHashes.get(index);
+        if (hashes != null) {
+            hashes.removeGraph(graphId);
+        }
+
+        Map<String, String> params = new HashMap<>();
+        params.put("conflicts", "proceed");
+        params.put("refresh", "true");
+        HttpEntity entity = new NStringEntity(body.toString(), ContentType.APPLICATION_JSON);
+        Response response = alsoUnsuccessful(
+                () -> esRestClient.performRequest("POST", "/" + index + "/_update_by_query", params, entity));
+        indexChanged(index);
+
+        if (isSuccess(response)) {
+            JsonNode result = responseContentAsJson(objectMapper, response);
+            log.info("Updated vocabulary of " + result.path("updated").asInt() + " concepts of graph " + graphId);
+            if (result.path("version_conflicts").asInt() > 0) {
+                // A concept written concurrently already has the vocabulary fetched from Termed by its writer
+                log.debug("Skipped " + result.path("version_conflicts").asInt() + " concurrently updated concepts of graph " + graphId);
+            }
+        } else {
+            log.warn("Unable to update vocabulary in concepts of graph " + graphId + ", reindexing the graph: " + responseContentAsString(response));
+            reindexGraph(graphId, true, index);
+        }
+    }
+
     private static @NotNull Set<UUID> broaderAndNarrowerIds(@NotNull List<List<Concept>> concepts) {
 
         return concepts.stream().flatMap(Collection::stream)
@@ -298,25 +688,17 @@ public class IndexElasticSearchService {
                 .collect(Collectors.toSet());
     }
 
-    private void reindexGraph(@NotNull UUID graphId, boolean waitForRefresh) {
+    private void reindexGraph(@NotNull UUID graphId, boolean waitForRefresh, @NotNull String index) {
         List<Concept> concepts = termedApiService.getAllConceptsForGraph(graphId);
         long start = System.currentTimeMillis();
         if (concepts != null && !concepts.isEmpty()) {
-        bulkUpdateAndDeleteDocumentsToIndex(graphId, concepts, emptyList(), waitForRefresh);
+            bulkUpdateAndDeleteDocumentsToIndex(graphId, concepts, emptyList(), waitForRefresh, index);
             long end = System.currentTimeMillis();
 
             log.info("Graph:" + graphId + " Indexed " + concepts.size() + " concepts in "+(end-start)+"ms");
         }
     }
 
-    private void deleteIndex() {
-        log.info("Deleting elasticsearch index: " + indexName);
-        Stream<String> ind = Stream.of(indexName.split(",")).map(o -> o.trim());
-        ind.forEach(s -> {
-            deleteIndex(s);
-        });
-    }
-
     private void deleteIndex(String index) {
         log.info("Deleting elasticsearch index: " + index);
 
@@ -340,6 +722,72 @@ public class IndexElasticSearchService {
         }
     }
 
+    private @NotNull List<String> indicesBehindAlias(@NotNull String alias) {
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("GET", "/_alias/" + alias));
+        if (isSuccess(response)) {
+            List<String> indices = new ArrayList<>();
+            responseContentAsJson(objectMapper, response).fieldNames().forEachRemaining(indices::add);
+            return indices;
+        } else if (indexExists(alias)) {
+            // Concrete index created before aliases were in use
+            return singletonList(alias);
+        }
+        return emptyList();
+    }
+
+    private @Nullable Map<String, String> createVersionedIndices(@NotNull String suffix) {
+        String[] indexNames = indexName.split(",");
+        String[] indexMaps = createMappingsFilename.split(",");
+        String[] indexMappingTypes = indexMappingType.split(",");
+        Map<String, String> indices = new LinkedHashMap<>();
+        for (int x = 0; x < indexNames.length; x++) {
+            String alias = indexNames[x].trim();
+            String index = alias + suffix;
+            if (!createIndex(index) || !createMapping(index, indexMaps[x], indexMappingTypes[x])) {
+                deleteIndex(index);
+                indices.values().forEach(this::deleteIndex);
+                return null;
+            }
+            indices.put(alias, index);
+        }
+        return indices;
+    }
+
+    private void refreshIndices(@NotNull Collection<String> indices) {
+        String endpoint = "/" + String.join(",", indices) + "/_refresh";
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", endpoint));
+        if (!isSuccess(response)) {
+            log.warn("Unable to refresh elasticsearch indices: " + indices);
+        }
+    }
+
+    /**
+     * Points each alias to its new index and removes the indices it pointed to before, all in one request.
+     */
+    private boolean switchAliases(@NotNull Map<String, String> newIndices) {
+        ObjectNode body = objectMapper.createObjectNode();
+        ArrayNode actions = body.putArray("actions");
+        List<String> oldIndices = new ArrayList<>();
+        newIndices.forEach((alias, index) -> {
+            for (String oldIndex : indicesBehindAlias(alias)) {
+                actions.addObject().putObject("remove_index").put("index", oldIndex);
+                oldIndices.add(oldIndex);
+            }
+            actions.addObject().putObject("add").put("index", index).put("alias", alias);
+        });
+
+        HttpEntity entity = new NStringEntity(body.toString(), ContentType.APPLICATION_JSON);
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", "/_aliases", emptyMap(), entity));
+
+        if (isSuccess(response)) {
+            log.info("Switched elasticsearch aliases to " + newIndices + ", removed indices " + oldIndices);
+            return true;
+        } else {
+            log.warn("Unable to switch elasticsearch aliases: " + responseContentAsString(response));
+            return false;
+        }
+    }
+
     private boolean createIndex(String index) {
 
         HttpEntity entity = createHttpEntity(createIndexFilename);
@@ -358,7 +806,9 @@ public class IndexElasticSearchService {
 
     private boolean createMapping(String index, String mapping, String mappingType) {
 
-        HttpEntity entity = createHttpEntity(mapping);
+        ObjectNode mappingJson = (ObjectNode) readJsonResource(mapping);
+        mappingJson.putObject("_meta").put(MAPPING_VERSION, mappingVersion(mapping));
+        HttpEntity entity = new NStringEntity(mappingJson.toString(), ContentType.APPLICATION_JSON);
         log.info("Trying to create elasticsearch index mapping type: " + mappingType);
         // Mapping name is same than index name
         // Response response = alsoUnsuccessful(() -> esRestClient.performRequest("PUT",
@@ -376,27 +826,68 @@ public class IndexElasticSearchService {
         }
     }
 
-    private @NotNull String createBulkIndexMetaAndSource(@NotNull Concept concept) {
-        return createBulkIndexMetaAndSource(concept, "concepts");
+    /**
+     * @return true if the index was created with the current index settings and mapping files
+     */
+    private boolean isMappingCurrent(String index, String mapping, String mappingType) {
+
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("GET", "/" + index + "/_mapping/" + mappingType.trim()));
+
+        if (!isSuccess(response)) {
+            log.warn("Unable to read mapping of elasticsearch index: " + index);
+            return true;
+        }
+
+        String expected = mappingVersion(mapping);
+        JsonNode indices = responseContentAsJson(objectMapper, response);
+        for (JsonNode physicalIndex : indices) {
+            JsonNode version = physicalIndex.path("mappings").path(mappingType.trim()).path("_meta").path(MAPPING_VERSION);
+            if (!expected.equals(version.textValue())) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    // private @NotNull String createBulkIndexMetaAndSource(@NotNull JsonNode
-    // vocabulary) {
-    // return createBulkIndexMetaAndSource(concept, "concept");
-    // }
+    /**
+     * Digest of the index settings and mapping files, stored in the mapping of each created index.
+     */
+    private @NotNull String mappingVersion(@NotNull String mapping) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(readJsonResource(createIndexFilename).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(readJsonResource(mapping).toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-    private @NotNull String createBulkIndexMetaAndSource(@NotNull Concept concept, String index) {
-        return "{\"index\":{\"_index\": \"" + index + "\", \"_type\": \"concept\", \"_id\":\"" + concept.getDocumentId()
-                + "\"}}\n" + concept.toElasticSearchDocument(objectMapper) + "\n";
+    /**
+     * Makes cached search results read from the live index stale. Writes to indices being built are not
+     * visible to searches until the aliases are switched.
+     */
+    private void indexChanged(@NotNull String index) {
+        if (CONCEPT_INDEX.equals(index) || VOCABULARY_INDEX.equals(index)) {
+            searchResultCache.indexChanged(index);
+        }
+    }
+
+    private @NotNull BulkWriter createBulkWriter(boolean waitForRefresh) {
+        return createBulkWriter(waitForRefresh, null);
     }
 
-    private @NotNull String createBulkDeleteMeta(@NotNull UUID graphId, @NotNull UUID conceptId) {
-        return "{\"delete\":{\"_index\": \"" + indexName + "\", \"_type\": \"concept\", \"_id\":\""
-                + Concept.formDocumentId(graphId, conceptId) + "\"}}\n";
+    private @NotNull BulkWriter createBulkWriter(boolean waitForRefresh, @Nullable ConceptHashes hashes) {
+        return new BulkWriter(esRestClient, objectMapper, bulkMaxBytes, bulkMaxDocuments, bulkConcurrency,
+                bulkMaxRetries, bulkRetryDelay, bulkRetryScheduler, bulkMetrics, waitForRefresh, hashes);
     }
 
     private void bulkUpdateAndDeleteDocumentsToIndex(@NotNull UUID graphId, @NotNull List<Concept> updateConcepts,
-            @NotNull List<UUID> deleteConceptsIds, boolean waitForRefresh) {
+            @NotNull List<UUID> deleteConceptsIds, boolean waitForRefresh, @NotNull String index) {
 
         if (updateConcepts.size() == 0 && deleteConceptsIds.size() == 0) {
             return; // nothing to do
@@ -404,46 +895,44 @@ public class IndexElasticSearchService {
 
         // https://www.elastic.co/guide/en/elasticsearch/reference/current/docs-bulk.html
 
-        String index = updateConcepts.stream().map(this::createBulkIndexMetaAndSource)
-                .collect(Collectors.joining("\n"));
-        String delete = deleteConceptsIds.stream().map(id -> createBulkDeleteMeta(graphId, id))
-                .collect(Collectors.joining("\n"));
-        // Changed content type for elastic search 6.x
-        HttpEntity entity = new NStringEntity(index + delete,
-                // ContentType.create("application/x-ndjson"));
-                ContentType.create("application/json", StandardCharsets.UTF_8));
-        // ContentType.create("application/x-ndjson", StandardCharsets.UTF_8));
-        Map<String, String> params = new HashMap<>();
-
-        params.put("pretty", "true");
-
-        if (waitForRefresh) {
-            params.put("refresh", "wait_for");
+        BulkWriter writer = createBulkWriter(waitForRefresh, conceptHashes.get(index));
+        try {
+            updateConcepts.forEach(concept -> writer.index(index, CONCEPT_TYPE, concept.getDocumentId(), concept.toElasticSearchDocument(objectMapper)));
+            deleteConceptsIds.forEach(id -> writer.delete(index, CONCEPT_TYPE, Concept.formDocumentId(graphId, id)));
+        } finally {
+            writer.close();
+            indexChanged(index);
         }
 
-        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", "/_bulk", params, entity));
-
-        if (isSuccess(response)) {
+        if (writer.getDroppedDocuments() == 0) {
             if (updateConcepts.size() > 0 && log.isDebugEnabled()) {
                 log.debug("Successfully added/updated concepts documents to elasticsearch index: "
-                        + updateConcepts.size());
+                        + updateConcepts.size() + ", " + writer.getUnchangedDocuments() + " of them unchanged");
             }
             if (deleteConceptsIds.size() > 0 && log.isDebugEnabled()) {
                 log.debug("Successfully deleted concepts  documents from elasticsearch index: "
                         + deleteConceptsIds.size());
             }
         } else {
-            log.warn("Unable to add or update concepts document to elasticsearch index: " + updateConcepts.size());
-            log.warn("Unable to delete concepts document from elasticsearch index: " + deleteConceptsIds.size());
+            log.warn("Unable to add, update or delete " + writer.getDroppedDocuments() + " concept documents in elasticsearch index, graph " + graphId);
         }
     }
 
     private void deleteDocumentsFromNamedIndexByGraphId(@NotNull UUID graphId, @NotNull String index) {
 
+        ConceptHashes hashes = conceptHashes.get(index);
+        if (hashes != null) {
+            hashes.removeConcept(graphId);
+        }
+
         HttpEntity body = new NStringEntity("{\"query\": { \"match\": {\"id\": \"" + graphId + "\"}}}",
                 ContentType.APPLICATION_JSON);
         Response response = alsoUnsuccessful(
                 () -> esRestClient.performRequest("POST", "/" + index + "/_delete_by_query", emptyMap(), body));
+        if (VOCABULARY_INDEX.equals(index)) {
+            terminologyContributors.invalidate();
+        }
+        indexChanged(index);
 
         if (isSuccess(response)) {
             log.info(responseContentAsString(response));
@@ -453,51 +942,76 @@ public class IndexElasticSearchService {
         }
     }
 
-    private void deleteDocumentsFromIndexByGraphId(@NotNull UUID graphId) {
+    private void deleteVocabularyDocumentsByGraphId(@NotNull UUID graphId, @NotNull String index) {
 
-        HttpEntity body = new NStringEntity("{\"query\": { \"match\": {\"vocabulary.id\": \"" + graphId + "\"}}}",
+        HttpEntity body = new NStringEntity("{\"query\": { \"match\": {\"type.graph.id\": \"" + graphId + "\"}}}",
                 ContentType.APPLICATION_JSON);
         Response response = alsoUnsuccessful(
-                () -> esRestClient.performRequest("POST", "/" + indexName + "/_delete_by_query", emptyMap(), body));
+                () -> esRestClient.performRequest("POST", "/" + index + "/_delete_by_query", emptyMap(), body));
+        terminologyContributors.invalidate();
+        indexChanged(index);
 
-        if (isSuccess(response)) {
-            log.info(responseContentAsString(response));
-            log.info("Successfully deleted vocabulary documents from elasticsearch index from graph: " + graphId);
-        } else {
-            log.warn("Unable to delete vocabulary documents from elasticsearch index");
+        if (!isSuccess(response)) {
+            log.warn("Unable to delete vocabulary documents of graph " + graphId + " from elasticsearch index " + index);
         }
     }
 
-    private void deleteAllDocumentsFromIndex() {
+    private void deleteDocumentsFromIndexByGraphId(@NotNull UUID graphId, @NotNull String index) {
+
+        ConceptHashes hashes = conceptHashes.get(index);
+        if (hashes != null) {
+            hashes.removeGraph(graphId);
+        }
 
-        HttpEntity body = new NStringEntity("{\"query\": { \"match_all\": {}}}", ContentType.APPLICATION_JSON);
-        // Response response = alsoUnsuccessful(() ->
-        // esRestClient.performRequest("POST",
-        // "/" + indexName + "/" + indexMappingType + "/_delete_by_query", emptyMap(),
-        // body));
+        HttpEntity body = new NStringEntity("{\"query\": { \"match\": {\"vocabulary.id\": \"" + graphId + "\"}}}",
+                ContentType.APPLICATION_JSON);
         Response response = alsoUnsuccessful(
-                () -> esRestClient.performRequest("POST", "/" + indexName + "/_delete_by_query", emptyMap(), body));
+                () -> esRestClient.performRequest("POST", "/" + index + "/_delete_by_query", emptyMap(), body));
+        indexChanged(index);
 
         if (isSuccess(response)) {
             log.info(responseContentAsString(response));
-            log.info("Successfully deleted all documents from elasticsearch index");
+            log.info("Successfully deleted vocabulary documents from elasticsearch index from graph: " + graphId);
         } else {
-            log.warn("Unable to delete documents from elasticsearch index");
+            log.warn("Unable to delete vocabulary documents from elasticsearch index");
         }
     }
 
-    private void deleteAllDocumentsFromNamedIndex(String index) {
+    /**
+     * Resolves the terminologies the given organizations contribute to from an in-memory index, without
+     * querying Elasticsearch unless the index has been invalidated.
+     *
+     * @param organizationIds ids of the contributor organizations
+     * @param terminologyIds  if not empty, limit the result to these terminology (graph) ids
+     * @param uriPrefixes     if not empty, limit the result to terminologies with URIs starting with these
+     * @return terminology (graph) ids as strings
+     */
+    public @NotNull Set<String> terminologiesMatchingOrganizations(@NotNull Collection<String> organizationIds,
+                                                                   @Nullable Collection<String> terminologyIds,
+                                                                   @Nullable Collection<String> uriPrefixes) {
+        return terminologyContributors.matching(organizationIds, terminologyIds, uriPrefixes);
+    }
 
-        HttpEntity body = new NStringEntity("{\"query\": { \"match_all\": {}}}", ContentType.APPLICATION_JSON);
-        Response response = alsoUnsuccessful(
-                () -> esRestClient.performRequest("POST", "/" + index + "/_delete_by_query", emptyMap(), body));
+    private @NotNull TerminologyContributors.Snapshot loadTerminologyContributors() {
 
-        if (isSuccess(response)) {
-            log.info(responseContentAsString(response));
-            log.info("Successfully deleted all documents from elasticsearch index:" + index);
-        } else {
-            log.warn("Unable to delete documents from elasticsearch index:" + index);
-        }
+        TerminologyContributors.Snapshot snapshot = new TerminologyContributors.Snapshot();
+        String source = "[\"type.graph.id\", \"uri\", \"references.contributor.id\"]";
+
+        scroll(VOCABULARY_INDEX, "{\"match_all\": {}}", source, "hits.hits._source", hit -> {
+            JsonNode vocabulary = hit.path("_source");
+            String terminologyId = vocabulary.path("type").path("graph").path("id").textValue();
+            if (terminologyId != null) {
+                List<String> contributorIds = new ArrayList<>();
+                vocabulary.path("references").path("contributor").forEach(contributor -> {
+                    if (contributor.path("id").isTextual()) {
+                        contributorIds.add(contributor.path("id").textValue());
+                    }
+                });
+                snapshot.add(terminologyId, vocabulary.path("uri").textValue(), contributorIds);
+            }
+        });
+
+        return snapshot;
     }
 
     public @Nullable JsonNode freeSearchFromIndex(String query) {
@@ -527,30 +1041,102 @@ public class IndexElasticSearchService {
     }
 
     public @Nullable JsonNode freeSearchFromIndex(SearchRequest sr) {
-        final SearchResponse response;
-        JsonNode obj = null;
-        try {
-            response = esHiLvClient.search(sr, RequestOptions.DEFAULT);
-            if (log.isDebugEnabled()) {
-                log.debug("Search result count=" + response.getHits().getTotalHits());
-            }
-            // setResultCounts(meta, response);
-            // String -> JSON
-            obj = objectMapper.readTree(response.toString());
-            /*
-             * response.getHits().forEach(hit -> { try { String resp =
-             * hit.getSourceAsString(); // String -> JSON obj = objectMapper.readTree(resp);
-             * } catch (final IOException e) {
-             * log.error("getContainers reading value from JSON string failed: " +
-             * hit.getSourceAsString(), e); throw new RuntimeException(e); } });
-             */
-        } catch (final IOException e) {
-            log.error("SearchRequest failed!", e);
-            throw new RuntimeException(e);
+        Response response = search(sr, emptyMap());
+        JsonNode obj = responseContentAsJson(objectMapper, response);
+        if (log.isDebugEnabled()) {
+            log.debug("Search result count=" + obj.path("hits").path("total").asLong());
         }
         return obj;
     }
 
+    /**
+     * Runs the search and passes the source and sort values of each hit to the consumer as the response is
+     * read. The response is not parsed as a whole, only the hits are read into trees one at a time.
+     *
+     * @param hitConsumer receives the source and the sort values of each hit, null if the hit has none
+     * @return total hit count of the search
+     */
+    public long searchSources(@NotNull SearchRequest sr, @NotNull BiConsumer<JsonNode, JsonNode> hitConsumer) {
+
+        Response response = search(sr, singletonMap("filter_path", "hits.total,hits.hits._source,hits.hits.sort"));
+        long total = 0;
+
+        try (InputStream is = response.getEntity().getContent();
+             JsonParser parser = objectMapper.getFactory().createParser(is)) {
+
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return 0;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("hits".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    total = readHits(parser, hitConsumer);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new ElasticEndpointException(e);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Search result count=" + total);
+        }
+        return total;
+    }
+
+    private long readHits(@NotNull JsonParser parser, @NotNull BiConsumer<JsonNode, JsonNode> hitConsumer) throws IOException {
+
+        long total = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("total".equals(field) && value.isNumeric()) {
+                total = parser.getLongValue();
+            } else if ("hits".equals(field) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    JsonNode source = null;
+                    JsonNode sort = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String hitField = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("_source".equals(hitField)) {
+                            source = parser.readValueAsTree();
+                        } else if ("sort".equals(hitField)) {
+                            sort = parser.readValueAsTree();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    hitConsumer.accept(source, sort);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Sends the search request through the low level client so that the response can be read as it is.
+     */
+    private @NotNull Response search(@NotNull SearchRequest sr, @NotNull Map<String, String> params) {
+
+        String endpoint = "/" + String.join(",", sr.indices()) + "/_search";
+        HttpEntity body = new NStringEntity(sr.source() != null ? sr.source().toString() : "{}", ContentType.APPLICATION_JSON);
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", endpoint, params, body));
+
+        if (!isSuccess(response)) {
+            log.error("SearchRequest failed!");
+            throw new IllegalStateException("Search from " + endpoint + " failed: " + responseContentAsString(response));
+        }
+        return response;
+    }
+
     public @Nullable JsonNode freeSearchFromIndex(String query, String indexName) {
         Parameters params = new Parameters();
         params.add("source", query.toString());
@@ -577,24 +1163,36 @@ public class IndexElasticSearchService {
         }
     }
 
-    private @Nullable Concept getConceptFromIndex(@NotNull UUID graphId, @NotNull UUID conceptId) {
-
-        String documentId = Concept.formDocumentId(graphId, conceptId);
-        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("GET",
-                "/" + indexName + "/concept/" + urlEncode(documentId) + "/_source"));
+    /**
+     * Fetches the indexed documents of the given concepts with one multi-get request, skipping concepts
+     * which are not in the index.
+     */
+    private @NotNull List<Concept> getConceptsFromIndex(@NotNull UUID graphId, @NotNull Collection<UUID> conceptIds) {
 
-        if (isSuccess(response)) {
-            return Concept.createFromIndex(objectMapper, responseContentAsJson(objectMapper, response));
-        } else {
-            return null;
+        if (conceptIds.isEmpty()) {
+            return emptyList();
         }
-    }
 
-    private @NotNull List<Concept> getConceptsFromIndex(@NotNull UUID graphId, @NotNull Collection<UUID> conceptIds) {
+        ObjectNode body = objectMapper.createObjectNode();
+        ArrayNode ids = body.putArray("ids");
+        conceptIds.forEach(conceptId -> ids.add(Concept.formDocumentId(graphId, conceptId)));
 
-        // TODO inefficient implementation
-        return conceptIds.stream().map(conceptId -> this.getConceptFromIndex(graphId, conceptId))
-                .filter(Objects::nonNull).collect(toList());
+        HttpEntity entity = new NStringEntity(body.toString(), ContentType.APPLICATION_JSON);
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST",
+                "/" + CONCEPT_INDEX + "/" + CONCEPT_TYPE + "/_mget", singletonMap("filter_path", "docs.found,docs._source"), entity));
+
+        if (!isSuccess(response)) {
+            log.warn("Unable to get concepts of graph " + graphId + " from elasticsearch index: " + responseContentAsString(response));
+            return emptyList();
+        }
+
+        List<Concept> concepts = new ArrayList<>(conceptIds.size());
+        for (JsonNode doc : responseContentAsJson(objectMapper, response).path("docs")) {
+            if (doc.path("found").asBoolean()) {
+                concepts.add(Concept.createFromIndex(objectMapper, doc.get("_source")));
+            }
+        }
+        return concepts;
     }
 
     private @NotNull Response alsoUnsuccessful(@NotNull ResponseSupplier supplier) {
@@ -607,14 +1205,6 @@ public class IndexElasticSearchService {
         }
     }
 
-    private static @NotNull String urlEncode(@NotNull String str) {
-        try {
-            return URLEncoder.encode(str, StandardCharsets.UTF_8.name());
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     private interface ResponseSupplier {
         @NotNull
         Response get() throws IOException;
@@ -626,13 +1216,16 @@ public class IndexElasticSearchService {
     }
 
     private @NotNull HttpEntity createHttpEntity(@NotNull String classPathResourceJsonFile) {
+        return new NStringEntity(readJsonResource(classPathResourceJsonFile).toString(), ContentType.APPLICATION_JSON);
+    }
+
+    private @NotNull JsonNode readJsonResource(@NotNull String classPathResourceJsonFile) {
 
-        ClassPathResource resource = new ClassPathResource(classPathResourceJsonFile);
+        ClassPathResource resource = new ClassPathResource(classPathResourceJsonFile.trim());
 
         try (InputStream is = resource.getInputStream()) {
             InputStreamReader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
-            JsonNode jsonNode = objectMapper.readTree(reader);
-            return new NStringEntity(jsonNode.toString(), ContentType.APPLICATION_JSON);
+            return objectMapper.readTree(reader);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -642,6 +1235,7 @@ public class IndexElasticSearchService {
     private void destroy() {
         try {
             log.info("Closing rest client");
+            this.bulkRetryScheduler.shutdownNow();
             this.esRestClient.close();
         } catch (IOException e) {
             log.warn("Unable to close rest client");
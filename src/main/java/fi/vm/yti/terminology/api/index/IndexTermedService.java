@@ -14,14 +14,23 @@ import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
 import org.springframework.core.ParameterizedTypeReference;
 
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static fi.vm.yti.terminology.api.util.JsonUtils.asStream;
 import static fi.vm.yti.terminology.api.util.JsonUtils.findSingle;
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.toList;
@@ -31,6 +40,13 @@ import static org.springframework.http.HttpMethod.GET;
 public class IndexTermedService {
 
     private static final Logger log = LoggerFactory.getLogger(IndexTermedService.class);
+
+    // Termed indexes dates as Lucene DateTools strings with millisecond resolution
+    private static final DateTimeFormatter TERMED_INDEX_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS").withZone(ZoneOffset.UTC);
+    private static final List<DateTimeFormatter> TERMED_DATE_FORMATS = asList(
+            DateTimeFormatter.ISO_OFFSET_DATE_TIME,
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXX"));
+
     private final TermedRequester termedRequester;
 
     @Autowired
@@ -94,20 +110,23 @@ public class IndexTermedService {
     }
 
 	@NotNull List<Concept> getAllConceptsForGraph(@NotNull UUID graphId) {
+        return createConcepts(graphId, this.fetchAllNodesInGraph(graphId));
+	}
 
-	    AllNodesResult allNodesResult = this.fetchAllNodesInGraph(graphId);
+    @NotNull List<Concept> createConcepts(@NotNull UUID graphId, @NotNull AllNodesResult allNodesResult) {
 
-        Optional<UUID> vocabularyNodeId = allNodesResult.getVocabularyNodeId();
+        int vocabularyNode = allNodesResult.getVocabularyNode();
 
-        if (vocabularyNodeId.isPresent()) {
-            return allNodesResult.getConceptNodeIds().stream()
-                    .map(conceptId -> Concept.createFromAllNodeResult(conceptId, vocabularyNodeId.get(), allNodesResult))
+        if (vocabularyNode >= 0) {
+            Vocabulary vocabulary = Vocabulary.createFromAllNodesResult(allNodesResult, vocabularyNode);
+            return Arrays.stream(allNodesResult.getConceptNodes())
+                    .mapToObj(concept -> Concept.createFromAllNodeResult(concept, vocabulary, allNodesResult))
                     .collect(toList());
         } else {
             log.warn("Concepts not found for graph: " + graphId);
             return emptyList();
         }
-	}
+    }
 
     @NotNull List<Concept> getConcepts(@NotNull UUID graphId, @NotNull Collection<UUID> ids) {
 
@@ -159,7 +178,7 @@ public class IndexTermedService {
                 .collect(Collectors.joining(" OR "));
     }
 
-    private @Nullable Vocabulary getVocabulary(@NotNull UUID graphId) {
+    @Nullable Vocabulary getVocabulary(@NotNull UUID graphId) {
 
 	    JsonNode vocabularyNode = getVocabularyNode(graphId);
 
@@ -228,11 +247,92 @@ public class IndexTermedService {
         return findSingle(termedRequester.exchange("/node-trees", GET, params, JsonNode.class));
     }
 
-    private @NotNull AllNodesResult fetchAllNodesInGraph(UUID graphId) {
+    /**
+     * Vocabularies and concepts affected by the nodes of the graph which were modified at or after the given time.
+     */
+    @NotNull ModifiedNodes fetchNodesModifiedSince(@NotNull UUID graphId, @NotNull Instant since) {
+
+        Parameters params = new Parameters();
+        params.add("select", "id");
+        params.add("select", "type");
+        params.add("select", "lastModifiedDate");
+        params.add("select", "referrers.prefLabelXl");
+        params.add("select", "referrers.altLabelXl");
+        params.add("where", "graph.id:" + graphId);
+        params.add("where", "lastModifiedDate:[" + TERMED_INDEX_DATE_FORMAT.format(since) + " TO *]");
+        params.add("max", "-1");
+
+        Set<UUID> vocabularyIds = new HashSet<>();
+        Set<UUID> conceptIds = new HashSet<>();
+        Instant lastModified = null;
+
+        JsonNode nodes = requireNonNull(termedRequester.exchange("/node-trees", GET, params, JsonNode.class));
+
+        for (JsonNode node : nodes) {
+
+            Instant modified = parseTermedDate(node.path("lastModifiedDate").textValue());
+
+            if (modified != null && modified.isBefore(since)) {
+                continue;
+            }
+            if (modified != null && (lastModified == null || modified.isAfter(lastModified))) {
+                lastModified = modified;
+            }
+
+            UUID id = UUID.fromString(node.get("id").textValue());
+            String type = node.path("type").path("id").textValue();
+
+            if ("Concept".equals(type)) {
+                conceptIds.add(id);
+            } else if ("Term".equals(type)) {
+                JsonNode referrers = node.path("referrers");
+                Stream.concat(asStream(referrers.get("prefLabelXl")), asStream(referrers.get("altLabelXl")))
+                        .map(referrer -> UUID.fromString(referrer.get("id").textValue()))
+                        .forEach(conceptIds::add);
+            } else if (VocabularyType.TerminologicalVocabulary.name().equals(type) || VocabularyType.Vocabulary.name().equals(type)) {
+                vocabularyIds.add(id);
+            }
+        }
+
+        return new ModifiedNodes(vocabularyIds, conceptIds, lastModified);
+    }
+
+    @NotNull Set<UUID> fetchConceptIds(@NotNull UUID graphId) {
+
+        Parameters params = new Parameters();
+        params.add("select", "id");
+        params.add("where", "graph.id:" + graphId);
+        params.add("where", "type.id:Concept");
+        params.add("max", "-1");
+
+        return asStream(termedRequester.exchange("/node-trees", GET, params, JsonNode.class))
+                .map(node -> UUID.fromString(node.get("id").textValue()))
+                .collect(Collectors.toSet());
+    }
+
+    private static @Nullable Instant parseTermedDate(@Nullable String date) {
+
+        if (date == null) {
+            return null;
+        }
+
+        for (DateTimeFormatter format : TERMED_DATE_FORMATS) {
+            try {
+                return OffsetDateTime.parse(date, format).toInstant();
+            } catch (DateTimeParseException e) {
+                // try next format
+            }
+        }
+
+        log.warn("Unable to parse Termed date: " + date);
+        return null;
+    }
+
+    @NotNull AllNodesResult fetchAllNodesInGraph(UUID graphId) {
 
         log.debug("Fetching all nodes for graph " + graphId.toString());
         Parameters params = Parameters.single("max", "-1");
-        JsonNode response = termedRequester.exchange("/graphs/" + graphId + "/nodes", GET, params, JsonNode.class);
-        return new AllNodesResult(requireNonNull(response));
+        AllNodesResult response = termedRequester.exchangeStream("/graphs/" + graphId + "/nodes", GET, params, AllNodesResult::read);
+        return requireNonNull(response);
     }
 }
@@ -0,0 +1,327 @@
+package fi.vm.yti.terminology.api.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.exception.ElasticEndpointException;
+import fi.vm.yti.terminology.api.exception.TermedEndpointException;
+import fi.vm.yti.terminology.api.index.TermedNotification.EventType;
+import fi.vm.yti.terminology.api.model.termed.Identifier;
+import fi.vm.yti.terminology.api.model.termed.NodeType;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static fi.vm.yti.terminology.api.model.termed.NodeType.Concept;
+import static fi.vm.yti.terminology.api.model.termed.NodeType.TerminologicalVocabulary;
+import static fi.vm.yti.terminology.api.model.termed.NodeType.Vocabulary;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Applies Termed change notifications to the index in the background.
+ * <p>
+ * Updates of a graph are applied one at a time in the order they were received, after waiting
+ * {@code debounceMillis} for more changes to the same graph. Consecutive updates of the same kind are
+ * merged into one while they wait. Different graphs are updated in parallel.
+ * <p>
+ * When a journal directory is configured, notifications are written to a {@link NotificationJournal}
+ * before they are acknowledged and removed from it once applied, so that notifications received before
+ * a crash or restart are applied by {@link #replayJournal}. Updates failing because Termed or
+ * Elasticsearch cannot be reached are retried with backoff instead of being dropped.
+ */
+@Service
+public class IndexUpdateQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexUpdateQueue.class);
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 60_000;
+
+    private static final List<NodeType> conceptTypes = singletonList(Concept);
+    private static final List<NodeType> vocabularyTypes = asList(TerminologicalVocabulary, Vocabulary);
+
+    private final IndexElasticSearchService elasticSearchService;
+    private final ScheduledExecutorService executor;
+    private final long debounceMillis;
+    private final long retryDelayMillis;
+    private final NotificationJournal journal;
+
+    private final Map<UUID, GraphUpdates> graphs = new ConcurrentHashMap<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Timer lag;
+
+    @Autowired
+    public IndexUpdateQueue(IndexElasticSearchService elasticSearchService,
+                            @Value("${search.notification.debounce:500}") long debounceMillis,
+                            @Value("${search.notification.workers:4}") int workers,
+                            @Value("${search.notification.retryDelay:1000}") long retryDelayMillis,
+                            @Value("${search.notification.journal.directory:}") String journalDirectory,
+                            @Value("${search.notification.journal.segmentBytes:16777216}") long journalSegmentBytes,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry) {
+        this.elasticSearchService = elasticSearchService;
+        this.debounceMillis = debounceMillis;
+        this.retryDelayMillis = Math.max(1, retryDelayMillis);
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, workers), new CustomizableThreadFactory("index-update-"));
+
+        if (journalDirectory.isEmpty()) {
+            log.warn("Notification journal not configured, notifications not yet applied to the index are lost on restart");
+            this.journal = null;
+        } else {
+            try {
+                this.journal = new NotificationJournal(Paths.get(journalDirectory), objectMapper, journalSegmentBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open notification journal " + journalDirectory, e);
+            }
+        }
+
+        Gauge.builder("terminology.index.queue.depth", depth, AtomicInteger::get)
+                .description("Index updates waiting to be applied")
+                .register(meterRegistry);
+        this.lag = Timer.builder("terminology.index.queue.lag")
+                .description("Time from receiving a change notification to applying it to the index")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues the saved or deleted nodes of the notification for indexing. Returns after the notification
+     * is safely in the journal.
+     */
+    public synchronized void submit(@NotNull TermedNotification notification) {
+
+        if (!isIndexUpdate(notification)) {
+            return;
+        }
+
+        long sequence = -1;
+
+        if (journal != null) {
+            try {
+                sequence = journal.append(notification);
+            } catch (IOException e) {
+                log.error("Unable to write notification to journal, it is lost if not applied before restart", e);
+            }
+        }
+
+        enqueue(sequence, notification);
+    }
+
+    /**
+     * Queues the notifications which were left unapplied in the journal by the previous run. Must be called
+     * once the index exists and before new notifications are received.
+     */
+    public synchronized void replayJournal() {
+
+        if (journal == null) {
+            return;
+        }
+
+        List<NotificationJournal.Entry> entries = journal.takeRecoveredEntries();
+
+        if (!entries.isEmpty()) {
+            log.info("Replaying " + entries.size() + " notifications from journal");
+        }
+
+        for (NotificationJournal.Entry entry : entries) {
+            if (isIndexUpdate(entry.notification)) {
+                enqueue(entry.sequence, entry.notification);
+            } else {
+                journal.complete(entry.sequence);
+            }
+        }
+    }
+
+    private void enqueue(long sequence, @NotNull TermedNotification notification) {
+
+        Map<UUID, List<Identifier>> nodesByGraphId =
+                notification.body.nodes.stream().collect(groupingBy(node -> node.getType().getGraph().getId()));
+
+        if (nodesByGraphId.isEmpty()) {
+            completeJournalEntry(sequence);
+            return;
+        }
+
+        JournalEntry journalEntry = new JournalEntry(sequence, nodesByGraphId.size());
+
+        for (Map.Entry<UUID, List<Identifier>> entries : nodesByGraphId.entrySet()) {
+            UUID graphId = entries.getKey();
+            List<Identifier> nodes = entries.getValue();
+
+            log.debug("Queueing a set of " + nodes.size() + " for " + graphId.toString());
+
+            graphs.computeIfAbsent(graphId, GraphUpdates::new)
+                    .add(notification.type, extractIdsOfType(nodes, vocabularyTypes), extractIdsOfType(nodes, conceptTypes), journalEntry);
+        }
+    }
+
+    private void completeJournalEntry(long sequence) {
+        if (journal != null && sequence >= 0) {
+            journal.complete(sequence);
+        }
+    }
+
+    private static boolean isIndexUpdate(@NotNull TermedNotification notification) {
+        return notification.type == EventType.NodeSavedEvent || notification.type == EventType.NodeDeletedEvent;
+    }
+
+    private static @NotNull List<UUID> extractIdsOfType(@NotNull List<Identifier> nodes, @NotNull List<NodeType> types) {
+        return nodes.stream()
+                .filter(node -> types.contains(node.getType().getId()))
+                .map(Identifier::getId)
+                .collect(toList());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+        if (depth.get() > 0) {
+            log.warn("Shutting down with " + depth.get() + " index updates not applied");
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warn("Unable to close notification journal", e);
+            }
+        }
+    }
+
+    private final class GraphUpdates {
+
+        private final UUID graphId;
+        private final Deque<Update> pending = new ArrayDeque<>();
+        private boolean scheduled;
+        private int failures;
+
+        private GraphUpdates(UUID graphId) {
+            this.graphId = graphId;
+        }
+
+        private synchronized void add(@NotNull EventType type,
+                                      @NotNull Collection<UUID> vocabularyIds,
+                                      @NotNull Collection<UUID> conceptIds,
+                                      @NotNull JournalEntry journalEntry) {
+            Update last = pending.peekLast();
+            if (last != null && last.type == type) {
+                last.vocabularyIds.addAll(vocabularyIds);
+                last.conceptIds.addAll(conceptIds);
+                last.journalEntries.add(journalEntry);
+            } else {
+                pending.addLast(new Update(type, vocabularyIds, conceptIds, journalEntry));
+                depth.incrementAndGet();
+            }
+            if (!scheduled) {
+                scheduled = true;
+                executor.schedule(this::applyPending, debounceMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized @Nullable Update next() {
+            Update update = pending.pollFirst();
+            if (update == null) {
+                scheduled = false;
+            }
+            return update;
+        }
+
+        private synchronized void retryLater(@NotNull Update update) {
+            pending.addFirst(update);
+            long delay = Math.min(MAX_RETRY_DELAY_MILLIS, retryDelayMillis << Math.min(failures++, 16));
+            executor.schedule(this::applyPending, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void applyPending() {
+            Update update;
+            while ((update = next()) != null) {
+                try {
+                    AffectedNodes nodes = new AffectedNodes(graphId, new ArrayList<>(update.vocabularyIds), new ArrayList<>(update.conceptIds));
+                    if (update.type == EventType.NodeSavedEvent) {
+                        elasticSearchService.updateIndexAfterUpdate(nodes);
+                    } else {
+                        elasticSearchService.updateIndexAfterDelete(nodes);
+                    }
+                    finished(update);
+                } catch (TermedEndpointException | ElasticEndpointException e) {
+                    log.warn("Unable to apply " + update.type + " of graph " + graphId + " to index, retrying later", e);
+                    retryLater(update);
+                    return;
+                } catch (RuntimeException e) {
+                    log.error("Unable to apply " + update.type + " of graph " + graphId + " to index", e);
+                    finished(update);
+                }
+            }
+        }
+
+        private void finished(@NotNull Update update) {
+            synchronized (this) {
+                failures = 0;
+            }
+            depth.decrementAndGet();
+            lag.record(System.currentTimeMillis() - update.received, TimeUnit.MILLISECONDS);
+            update.journalEntries.forEach(JournalEntry::graphDone);
+        }
+    }
+
+    /**
+     * Journal entry of a notification, completed once the updates of all graphs in it are finished.
+     */
+    private final class JournalEntry {
+
+        private final long sequence;
+        private final AtomicInteger graphsLeft;
+
+        private JournalEntry(long sequence, int graphs) {
+            this.sequence = sequence;
+            this.graphsLeft = new AtomicInteger(graphs);
+        }
+
+        private void graphDone() {
+            if (graphsLeft.decrementAndGet() == 0) {
+                completeJournalEntry(sequence);
+            }
+        }
+    }
+
+    private static final class Update {
+
+        private final EventType type;
+        private final Set<UUID> vocabularyIds;
+        private final Set<UUID> conceptIds;
+        private final List<JournalEntry> journalEntries = new ArrayList<>();
+        private final long received = System.currentTimeMillis();
+
+        private Update(EventType type, Collection<UUID> vocabularyIds, Collection<UUID> conceptIds, JournalEntry journalEntry) {
+            this.type = type;
+            this.vocabularyIds = new LinkedHashSet<>(vocabularyIds);
+            this.conceptIds = new LinkedHashSet<>(conceptIds);
+            this.journalEntries.add(journalEntry);
+        }
+    }
+}
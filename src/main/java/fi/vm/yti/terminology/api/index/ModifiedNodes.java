@@ -0,0 +1,42 @@
+package fi.vm.yti.terminology.api.index;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Vocabularies and concepts of a graph affected by nodes modified since a given time. A modified term
+ * affects the concepts referring to it.
+ */
+final class ModifiedNodes {
+
+    private final Set<UUID> vocabularyIds;
+    private final Set<UUID> conceptIds;
+    private final Instant lastModified;
+
+    ModifiedNodes(@NotNull Set<UUID> vocabularyIds, @NotNull Set<UUID> conceptIds, @Nullable Instant lastModified) {
+        this.vocabularyIds = vocabularyIds;
+        this.conceptIds = conceptIds;
+        this.lastModified = lastModified;
+    }
+
+    @NotNull Set<UUID> getVocabularyIds() {
+        return unmodifiableSet(vocabularyIds);
+    }
+
+    @NotNull Set<UUID> getConceptIds() {
+        return unmodifiableSet(conceptIds);
+    }
+
+    /**
+     * @return latest modification time of the nodes, null if there were none
+     */
+    @Nullable Instant getLastModified() {
+        return lastModified;
+    }
+}
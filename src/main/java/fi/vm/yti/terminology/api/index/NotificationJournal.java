@@ -0,0 +1,315 @@
+package fi.vm.yti.terminology.api.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only journal of Termed notifications which have been received but not yet applied to the index.
+ * <p>
+ * Entries are written to segment files, one line per entry holding the sequence number, a CRC32 of the
+ * notification and the notification as JSON, and forced to disk before {@link #append} returns. A
+ * {@link #complete completed} entry gets a marker line in its segment, and a segment is emptied or
+ * deleted once all of its entries are completed. Entries left in the segments when the journal is opened
+ * are available from {@link #takeRecoveredEntries} for replaying.
+ * <p>
+ * Completion markers are not forced to disk, so after a crash an already applied notification may be
+ * replayed once more.
+ */
+final class NotificationJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(NotificationJournal.class);
+
+    private static final String SEGMENT_PREFIX = "notifications-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPLETED_MARKER = "done";
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final long maxSegmentBytes;
+
+    private final Map<Long, Segment> pendingEntries = new HashMap<>();
+    private List<Entry> recoveredEntries = new ArrayList<>();
+    private Segment active;
+    private long nextSequence = 1;
+
+    NotificationJournal(@NotNull Path directory,
+                        @NotNull ObjectMapper objectMapper,
+                        long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        this.maxSegmentBytes = maxSegmentBytes;
+
+        Files.createDirectories(directory);
+
+        for (Path path : listSegments()) {
+            recover(path);
+        }
+
+        this.active = openSegment();
+
+        if (!recoveredEntries.isEmpty()) {
+            log.info("Recovered " + recoveredEntries.size() + " unapplied notifications from journal " + directory);
+        }
+    }
+
+    synchronized long append(@NotNull TermedNotification notification) throws IOException {
+
+        byte[] json = objectMapper.writeValueAsBytes(notification);
+        long sequence = nextSequence;
+
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        byte[] header = (sequence + " " + Long.toHexString(crc.getValue()) + " ").getBytes(StandardCharsets.US_ASCII);
+
+        ByteBuffer line = ByteBuffer.allocate(header.length + json.length + 1);
+        line.put(header).put(json).put((byte) '\n').flip();
+
+        if (active.size > 0 && active.size + line.remaining() > maxSegmentBytes) {
+            rollSegment();
+        }
+
+        active.write(line, true);
+
+        nextSequence++;
+        active.pending++;
+        pendingEntries.put(sequence, active);
+        return sequence;
+    }
+
+    synchronized void complete(long sequence) {
+
+        Segment segment = pendingEntries.remove(sequence);
+
+        if (segment == null) {
+            return;
+        }
+
+        try {
+            if (--segment.pending > 0) {
+                byte[] marker = (sequence + " " + COMPLETED_MARKER + "\n").getBytes(StandardCharsets.US_ASCII);
+                segment.write(ByteBuffer.wrap(marker), false);
+            } else if (segment == active) {
+                active.channel.truncate(0);
+                active.channel.force(false);
+                active.size = 0;
+            } else {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to mark entry " + sequence + " completed in journal segment " + segment.path, e);
+        }
+    }
+
+    synchronized @NotNull List<Entry> takeRecoveredEntries() {
+        List<Entry> entries = recoveredEntries;
+        recoveredEntries = new ArrayList<>();
+        return entries;
+    }
+
+    synchronized int pending() {
+        return pendingEntries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : new ArrayList<>(pendingEntries.values())) {
+            segment.channel.close();
+        }
+        active.channel.close();
+    }
+
+    private void rollSegment() throws IOException {
+
+        Segment previous = active;
+        active = openSegment();
+
+        if (previous.pending == 0) {
+            previous.channel.close();
+            Files.deleteIfExists(previous.path);
+        }
+    }
+
+    private @NotNull Segment openSegment() throws IOException {
+        Path path = directory.resolve(SEGMENT_PREFIX + nextSequence + SEGMENT_SUFFIX);
+        return new Segment(path, FileChannel.open(path, CREATE, WRITE, APPEND));
+    }
+
+    private void recover(@NotNull Path path) throws IOException {
+
+        byte[] content = Files.readAllBytes(path);
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        int validLength = 0;
+
+        for (int start = 0; start < content.length; ) {
+            int end = start;
+            while (end < content.length && content[end] != '\n') {
+                end++;
+            }
+
+            if (end == content.length || !recoverLine(new String(content, start, end - start, StandardCharsets.UTF_8), entries)) {
+                log.warn("Ignoring incomplete entry at the end of journal segment " + path);
+                break;
+            }
+
+            start = end + 1;
+            validLength = start;
+        }
+
+        if (entries.isEmpty()) {
+            Files.delete(path);
+            return;
+        }
+
+        Segment segment = new Segment(path, FileChannel.open(path, WRITE, APPEND));
+        // Cut a torn write so that completion markers written after it can be read back
+        segment.channel.truncate(validLength);
+        segment.size = validLength;
+        segment.pending = entries.size();
+
+        for (Entry entry : entries.values()) {
+            recoveredEntries.add(entry);
+            pendingEntries.put(entry.sequence, segment);
+        }
+    }
+
+    private boolean recoverLine(@NotNull String line, @NotNull Map<Long, Entry> entries) {
+
+        int sequenceEnd = line.indexOf(' ');
+
+        if (sequenceEnd < 0) {
+            return false;
+        }
+
+        try {
+            long sequence = Long.parseLong(line.substring(0, sequenceEnd));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+
+            if (line.substring(sequenceEnd + 1).equals(COMPLETED_MARKER)) {
+                entries.remove(sequence);
+                return true;
+            }
+
+            Entry entry = parseEntry(sequence, line.substring(sequenceEnd + 1));
+
+            if (entry == null) {
+                return false;
+            }
+
+            entries.put(sequence, entry);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private @Nullable Entry parseEntry(long sequence, @NotNull String crcAndJson) {
+
+        int crcEnd = crcAndJson.indexOf(' ');
+
+        if (crcEnd < 0) {
+            return null;
+        }
+
+        try {
+            long expectedCrc = Long.parseLong(crcAndJson.substring(0, crcEnd), 16);
+            byte[] json = crcAndJson.substring(crcEnd + 1).getBytes(StandardCharsets.UTF_8);
+
+            CRC32 crc = new CRC32();
+            crc.update(json);
+
+            if (crc.getValue() != expectedCrc) {
+                return null;
+            }
+
+            return new Entry(sequence, objectMapper.readValue(json, TermedNotification.class));
+        } catch (NumberFormatException | IOException e) {
+            return null;
+        }
+    }
+
+    private @NotNull List<Path> listSegments() throws IOException {
+
+        List<Path> segments = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+
+        segments.sort(Comparator.comparingLong(NotificationJournal::firstSequence));
+        return segments;
+    }
+
+    private static long firstSequence(@NotNull Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    static final class Entry {
+
+        final long sequence;
+        final TermedNotification notification;
+
+        private Entry(long sequence, TermedNotification notification) {
+            this.sequence = sequence;
+            this.notification = notification;
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+        private int pending;
+
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        private void write(@NotNull ByteBuffer line, boolean force) throws IOException {
+            int length = line.remaining();
+            try {
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+                if (force) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                // Drop a partially written line so that it does not hide the lines appended after it
+                channel.truncate(size);
+                throw e;
+            }
+            size += length;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package fi.vm.yti.terminology.api.index;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.exception.ElasticEndpointException;
+import fi.vm.yti.terminology.api.exception.TermedEndpointException;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Collections.emptyMap;
+
+/**
+ * Full reindex of concept documents where Termed fetches, document building and bulk writes overlap.
+ * <p>
+ * At most {@code graphConcurrency} graphs are fetched or built at a time, built graphs wait in a bounded
+ * queue for the bulk writer, and a full queue blocks the builders. A failing graph is logged and skipped,
+ * only failures to reach Termed or Elasticsearch abort the whole run.
+ */
+final class ReindexPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(ReindexPipeline.class);
+
+    private static final GraphDocuments END_OF_GRAPHS = new GraphDocuments(null, emptyMap());
+
+    private final IndexTermedService termedApiService;
+    private final ObjectMapper objectMapper;
+    private final GraphWriter writer;
+    private final int graphConcurrency;
+    private final int buildThreads;
+    private final int queueSize;
+
+    private final AtomicInteger indexedGraphs = new AtomicInteger();
+    private final AtomicInteger failedGraphs = new AtomicInteger();
+    private final AtomicReference<RuntimeException> endpointFailure = new AtomicReference<>();
+
+    ReindexPipeline(@NotNull IndexTermedService termedApiService,
+                    @NotNull ObjectMapper objectMapper,
+                    @NotNull GraphWriter writer,
+                    int graphConcurrency,
+                    int buildThreads,
+                    int queueSize) {
+        this.termedApiService = termedApiService;
+        this.objectMapper = objectMapper;
+        this.writer = writer;
+        this.graphConcurrency = Math.max(1, graphConcurrency);
+        this.buildThreads = buildThreads > 0 ? buildThreads : Runtime.getRuntime().availableProcessors();
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    void run(@NotNull Collection<UUID> graphIds) {
+
+        long start = System.currentTimeMillis();
+        ExecutorService fetchExecutor = Executors.newFixedThreadPool(graphConcurrency, new CustomizableThreadFactory("reindex-fetch-"));
+        ExecutorService buildExecutor = Executors.newFixedThreadPool(buildThreads, new CustomizableThreadFactory("reindex-build-"));
+        ExecutorService writeExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("reindex-write-"));
+        BlockingQueue<GraphDocuments> queue = new ArrayBlockingQueue<>(queueSize);
+        Semaphore graphsInFlight = new Semaphore(graphConcurrency);
+
+        try {
+            Future<?> writing = writeExecutor.submit(() -> writeAll(queue));
+            List<CompletableFuture<Void>> graphs = new ArrayList<>(graphIds.size());
+
+            for (UUID graphId : graphIds) {
+                if (endpointFailure.get() != null) {
+                    break;
+                }
+                graphsInFlight.acquire();
+                graphs.add(CompletableFuture
+                        .supplyAsync(() -> termedApiService.fetchAllNodesInGraph(graphId), fetchExecutor)
+                        .thenApplyAsync(nodes -> buildDocuments(termedApiService.createConcepts(graphId, nodes)), buildExecutor)
+                        .thenAccept(documents -> put(queue, new GraphDocuments(graphId, documents)))
+                        .whenComplete((ignored, e) -> {
+                            graphsInFlight.release();
+                            if (e != null) {
+                                failed(graphId, e instanceof CompletionException ? e.getCause() : e);
+                            }
+                        }));
+            }
+
+            CompletableFuture.allOf(graphs.toArray(new CompletableFuture<?>[0])).handle((ignored, e) -> null).join();
+            put(queue, END_OF_GRAPHS);
+            writing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Reindexing interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            fetchExecutor.shutdownNow();
+            buildExecutor.shutdownNow();
+            writeExecutor.shutdownNow();
+        }
+
+        long end = System.currentTimeMillis();
+        log.info("Indexed concepts of " + indexedGraphs.get() + " graphs in " + (end - start) + "ms, " + failedGraphs.get() + " graphs failed");
+
+        RuntimeException failure = endpointFailure.get();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void writeAll(@NotNull BlockingQueue<GraphDocuments> queue) {
+        try {
+            while (true) {
+                GraphDocuments documents = queue.take();
+                if (documents == END_OF_GRAPHS) {
+                    return;
+                }
+                try {
+                    if (!documents.documents.isEmpty()) {
+                        writer.write(documents.graphId, documents.documents);
+                    }
+                    indexedGraphs.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failed(documents.graphId, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private @NotNull Map<String, JsonNode> buildDocuments(@NotNull List<Concept> concepts) {
+        Map<String, JsonNode> documents = new LinkedHashMap<>(concepts.size() * 2);
+        for (Concept concept : concepts) {
+            documents.put(concept.getDocumentId(), concept.toElasticSearchDocument(objectMapper));
+        }
+        return documents;
+    }
+
+    private void failed(UUID graphId, Throwable e) {
+        failedGraphs.incrementAndGet();
+        if (e instanceof TermedEndpointException || e instanceof ElasticEndpointException) {
+            log.error("Reindexing graph " + graphId + " failed, aborting", e);
+            endpointFailure.compareAndSet(null, (RuntimeException) e);
+        } else {
+            log.error("Reindexing graph " + graphId + " failed, skipping it", e);
+        }
+    }
+
+    private static void put(@NotNull BlockingQueue<GraphDocuments> queue, @NotNull GraphDocuments documents) {
+        try {
+            queue.put(documents);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for bulk writer", e);
+        }
+    }
+
+    interface GraphWriter {
+        void write(@NotNull UUID graphId, @NotNull Map<String, JsonNode> documentsById);
+    }
+
+    private static final class GraphDocuments {
+
+        private final UUID graphId;
+        private final Map<String, JsonNode> documents;
+
+        private GraphDocuments(UUID graphId, Map<String, JsonNode> documents) {
+            this.graphId = graphId;
+            this.documents = documents;
+        }
+    }
+}
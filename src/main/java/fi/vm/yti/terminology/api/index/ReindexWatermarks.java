@@ -0,0 +1,119 @@
+package fi.vm.yti.terminology.api.index;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Per graph high-water marks of Termed modification times already applied to a concept index.
+ * <p>
+ * The marks belong to one physical concept index and are stored in a JSON file together with the name of
+ * that index, so marks written for an index which is no longer behind the alias are not trusted.
+ */
+final class ReindexWatermarks {
+
+    private static final Logger log = LoggerFactory.getLogger(ReindexWatermarks.class);
+
+    private final Path file;
+    private final ObjectMapper objectMapper;
+
+    private String conceptIndex;
+    private final Map<UUID, Instant> marks = new HashMap<>();
+
+    ReindexWatermarks(@NotNull Path file, @NotNull ObjectMapper objectMapper) {
+        this.file = file;
+        this.objectMapper = objectMapper;
+        load();
+    }
+
+    /**
+     * @return true if the marks were written for the given physical concept index
+     */
+    boolean isFor(@NotNull String conceptIndex) {
+        return conceptIndex.equals(this.conceptIndex);
+    }
+
+    @NotNull Set<UUID> getGraphIds() {
+        return unmodifiableSet(marks.keySet());
+    }
+
+    @Nullable Instant get(@NotNull UUID graphId) {
+        return marks.get(graphId);
+    }
+
+    void set(@NotNull UUID graphId, @NotNull Instant mark) {
+        marks.merge(graphId, mark, (previous, next) -> next.isAfter(previous) ? next : previous);
+    }
+
+    void remove(@NotNull UUID graphId) {
+        marks.remove(graphId);
+    }
+
+    /**
+     * Starts marks for a freshly built concept index.
+     */
+    void reset(@NotNull String conceptIndex, @NotNull Collection<UUID> graphIds, @NotNull Instant mark) {
+        this.conceptIndex = conceptIndex;
+        this.marks.clear();
+        graphIds.forEach(graphId -> marks.put(graphId, mark));
+    }
+
+    void save() {
+
+        ObjectNode json = objectMapper.createObjectNode();
+        json.put("index", conceptIndex);
+        ObjectNode graphs = json.putObject("graphs");
+        marks.forEach((graphId, mark) -> graphs.put(graphId.toString(), mark.toString()));
+
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            objectMapper.writeValue(temporary.toFile(), json);
+            Files.move(temporary, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to save reindex watermarks to " + file, e);
+        }
+    }
+
+    private void load() {
+
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try {
+            JsonNode json = objectMapper.readTree(file.toFile());
+            this.conceptIndex = json.path("index").textValue();
+
+            for (Iterator<Map.Entry<String, JsonNode>> it = json.path("graphs").fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> mark = it.next();
+                marks.put(UUID.fromString(mark.getKey()), Instant.parse(mark.getValue().textValue()));
+            }
+        } catch (IOException | IllegalArgumentException | DateTimeParseException e) {
+            log.warn("Ignoring unreadable reindex watermarks " + file, e);
+            this.conceptIndex = null;
+            this.marks.clear();
+        }
+    }
+}
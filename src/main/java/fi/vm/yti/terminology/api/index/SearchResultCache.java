@@ -0,0 +1,165 @@
+package fi.vm.yti.terminology.api.index;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Bounded least recently used cache of search results.
+ * <p>
+ * Each entry is tagged with the generations of the indices its search read. The generation of an index
+ * is bumped by {@link IndexElasticSearchService} after every write to it, which makes the entries read
+ * from the index before the write stale. Results read within {@code settleMillis} of a write are not
+ * cached at all, as the write may not have been visible to the search yet, and entries older than
+ * {@code maxAgeMillis} are dropped to pick up writes made through other instances.
+ */
+@Service
+public class SearchResultCache {
+
+    private final int maxEntries;
+    private final long settleMillis;
+    private final long maxAgeMillis;
+
+    private final Map<String, Generation> generations = new ConcurrentHashMap<>();
+    private final Map<Object, Entry> entries;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public SearchResultCache(@Value("${search.cache.maxEntries:1000}") int maxEntries,
+                             @Value("${search.cache.settleMillis:2000}") long settleMillis,
+                             @Value("${search.cache.maxAge:60}") long maxAgeSeconds,
+                             MeterRegistry meterRegistry) {
+        this.maxEntries = maxEntries;
+        this.settleMillis = settleMillis;
+        this.maxAgeMillis = maxAgeSeconds * 1000;
+        this.entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                return size() > SearchResultCache.this.maxEntries;
+            }
+        };
+        this.hits = counter(meterRegistry, "hit");
+        this.misses = counter(meterRegistry, "miss");
+        Gauge.builder("terminology.search.cache.size", this, SearchResultCache::size)
+                .description("Search results in the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached result of the search or runs the search and caches its result.
+     *
+     * @param key     normalized search request, including everything that affects the result such as the
+     *                content the user is allowed to see. Must implement equals and hashCode.
+     * @param search  runs the search, the result must not be modified after it is returned
+     * @param indices aliases of the indices the search reads
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(@NotNull Object key, @NotNull Supplier<T> search, @NotNull String... indices) {
+
+        if (maxEntries <= 0) {
+            return search.get();
+        }
+
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry != null && now - entry.created < maxAgeMillis && isCurrent(entry)) {
+            hits.increment();
+            return (T) entry.value;
+        }
+
+        misses.increment();
+        long[] searchedGenerations = new long[indices.length];
+        boolean settled = true;
+        for (int i = 0; i < indices.length; i++) {
+            Generation generation = generation(indices[i]);
+            searchedGenerations[i] = generation.value;
+            settled &= now - generation.changed >= settleMillis;
+        }
+
+        T value = search.get();
+
+        if (settled && value != null) {
+            synchronized (entries) {
+                entries.put(key, new Entry(value, now, indices, searchedGenerations));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Makes the results read from the index stale.
+     *
+     * @param index alias of the index
+     */
+    void indexChanged(@NotNull String index) {
+        generation(index).bump();
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private boolean isCurrent(@NotNull Entry entry) {
+        for (int i = 0; i < entry.indices.length; i++) {
+            if (generation(entry.indices[i]).value != entry.generations[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private @NotNull Generation generation(@NotNull String index) {
+        return generations.computeIfAbsent(index, name -> new Generation());
+    }
+
+    private static @NotNull Counter counter(@NotNull MeterRegistry meterRegistry, @NotNull String result) {
+        return Counter.builder("terminology.search.cache.requests")
+                .description("Cached searches by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static final class Generation {
+
+        private volatile long value;
+        private volatile long changed;
+
+        private synchronized void bump() {
+            // Timestamp first so that a search seeing the new value also sees it as unsettled
+            changed = System.currentTimeMillis();
+            value++;
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+        private final long created;
+        private final String[] indices;
+        private final long[] generations;
+
+        private Entry(Object value, long created, String[] indices, long[] generations) {
+            this.value = value;
+            this.created = created;
+            this.indices = indices;
+            this.generations = generations;
+        }
+    }
+}
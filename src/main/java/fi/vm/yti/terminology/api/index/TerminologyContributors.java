@@ -0,0 +1,131 @@
+package fi.vm.yti.terminology.api.index;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptySet;
+
+/**
+ * In-memory index of the terminologies each organization contributes to, read from the vocabulary index.
+ * <p>
+ * The index is loaded on first use and kept until {@link #invalidate invalidated} after a change to the
+ * vocabulary index, or until it is older than {@code maxAgeMillis} to pick up changes made through other
+ * instances. Loads racing with an invalidation, or started within {@code settleMillis} of one when the
+ * change may not be visible to searches yet, are used for the request at hand but not kept.
+ */
+final class TerminologyContributors {
+
+    private static final Logger log = LoggerFactory.getLogger(TerminologyContributors.class);
+
+    private final Supplier<Snapshot> loader;
+    private final long settleMillis;
+    private final long maxAgeMillis;
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long invalidated;
+    private volatile Snapshot snapshot;
+
+    TerminologyContributors(@NotNull Supplier<Snapshot> loader, long settleMillis, long maxAgeMillis) {
+        this.loader = loader;
+        this.settleMillis = settleMillis;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @param organizationIds ids of the contributor organizations
+     * @param terminologyIds  if not empty, only these terminology (graph) ids are returned
+     * @param uriPrefixes     if not empty, only terminologies with an URI starting with one of these are returned
+     * @return ids of the terminologies having any of the organizations as contributor
+     */
+    @NotNull Set<String> matching(@NotNull Collection<String> organizationIds,
+                                  @Nullable Collection<String> terminologyIds,
+                                  @Nullable Collection<String> uriPrefixes) {
+
+        if (organizationIds.isEmpty()) {
+            return emptySet();
+        }
+
+        Snapshot current = current();
+
+        if (current == null) {
+            return emptySet();
+        }
+
+        Set<String> ret = new HashSet<>();
+        for (String organizationId : organizationIds) {
+            for (String terminologyId : current.terminologiesByContributor.getOrDefault(organizationId, emptySet())) {
+                if ((terminologyIds == null || terminologyIds.isEmpty() || terminologyIds.contains(terminologyId)) &&
+                        (uriPrefixes == null || uriPrefixes.isEmpty() || hasPrefix(current.uris.get(terminologyId), uriPrefixes))) {
+                    ret.add(terminologyId);
+                }
+            }
+        }
+        return ret;
+    }
+
+    void invalidate() {
+        // Timestamp first so that a load seeing the new generation also sees it as unsettled
+        invalidated = System.currentTimeMillis();
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+    private @Nullable Snapshot current() {
+
+        Snapshot current = snapshot;
+
+        if (current != null && System.currentTimeMillis() - current.loaded < maxAgeMillis) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = snapshot;
+            if (current != null && System.currentTimeMillis() - current.loaded < maxAgeMillis) {
+                return current;
+            }
+
+            long loadedGeneration = generation.get();
+            boolean settled = System.currentTimeMillis() - invalidated >= settleMillis;
+            try {
+                current = loader.get();
+            } catch (RuntimeException e) {
+                log.error("Failed to load terminology contributors", e);
+                return null;
+            }
+
+            if (settled && generation.get() == loadedGeneration) {
+                snapshot = current;
+            }
+            log.debug("Loaded contributors of " + current.uris.size() + " terminologies");
+            return current;
+        }
+    }
+
+    private static boolean hasPrefix(@Nullable String uri, @NotNull Collection<String> prefixes) {
+        return uri != null && prefixes.stream().anyMatch(uri::startsWith);
+    }
+
+    static final class Snapshot {
+
+        private final long loaded = System.currentTimeMillis();
+        private final Map<String, Set<String>> terminologiesByContributor = new HashMap<>();
+        private final Map<String, String> uris = new HashMap<>();
+
+        void add(@NotNull String terminologyId, @Nullable String uri, @NotNull Collection<String> contributorIds) {
+            uris.put(terminologyId, uri);
+            for (String contributorId : contributorIds) {
+                terminologiesByContributor.computeIfAbsent(contributorId, id -> new HashSet<>()).add(terminologyId);
+            }
+        }
+    }
+}
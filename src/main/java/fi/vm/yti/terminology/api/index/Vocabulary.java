@@ -5,13 +5,18 @@ import java.util.Map;
 import java.util.UUID;
 
 import org.jetbrains.annotations.NotNull;
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Whitelist;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import fi.vm.yti.terminology.api.util.JsonUtils;
 
+import static java.util.Objects.requireNonNull;
+
 public final class Vocabulary {
 
     private final UUID graphId;
@@ -55,6 +60,39 @@ public final class Vocabulary {
         return new Vocabulary(graphId, uri, label, status);
     }
 
+    static @NotNull Vocabulary createFromAllNodesResult(@NotNull AllNodesResult nodes, int node) {
+
+        UUID graphId = requireNonNull(nodes.getGraphId(node), "Vocabulary node without graph: " + nodes.getId(node));
+        String uri = requireNonNull(nodes.getUri(node), "Vocabulary node without uri: " + nodes.getId(node));
+        String status = nodes.getSinglePropertyValue(node, AllNodesResult.STATUS);
+        if (status == null || status.isEmpty()) {
+            status = "DRAFT";
+        }
+        return new Vocabulary(graphId, uri, nodes.getLocalizable(node, AllNodesResult.PREF_LABEL), status);
+    }
+
+    /**
+     * Adds fields derived from the termed vocabulary node for the vocabulary index: the description as
+     * plain text by language and the plain language codes of the vocabulary.
+     */
+    static @NotNull JsonNode toVocabularyDocument(@NotNull ObjectMapper mapper, @NotNull JsonNode termedNode) {
+
+        ObjectNode document = termedNode.deepCopy();
+        JsonNode properties = termedNode.path("properties");
+
+        document.set("descriptionPlain", JsonUtils.localizableToPlainJson(mapper,
+                JsonUtils.localizableFromTermedProperties(properties, "description")));
+
+        ArrayNode languageCodes = document.putArray("languageCodes");
+        for (JsonNode language : properties.path("language")) {
+            if (language.path("value").isTextual()) {
+                languageCodes.add(Jsoup.clean(language.get("value").textValue(), Whitelist.none()));
+            }
+        }
+
+        return document;
+    }
+
     static @NotNull Vocabulary createFromIndex(ObjectMapper mapper,
                                                @NotNull JsonNode json) {
 
@@ -71,6 +109,7 @@ public final class Vocabulary {
         ObjectNode output = objectMapper.createObjectNode();
 
         output.set("label", JsonUtils.localizableToJson(objectMapper, label));
+        output.set("labelPlain", JsonUtils.localizableToPlainJson(objectMapper, label));
         output.put("id", graphId.toString());
         output.put("uri", uri);
         output.put("status", status);
@@ -1,5 +1,7 @@
 package fi.vm.yti.terminology.api.integration;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
@@ -9,6 +11,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.LocaleUtils;
 import org.slf4j.Logger;
@@ -35,6 +38,7 @@ import fi.vm.yti.terminology.api.model.integration.IntegrationResourceRequest;
 import fi.vm.yti.terminology.api.model.integration.PrivateConceptSuggestionRequest;
 import fi.vm.yti.terminology.api.model.integration.ResourcesResponse;
 import fi.vm.yti.terminology.api.model.integration.ResponseWrapper;
+import fi.vm.yti.terminology.api.util.SearchCursor;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -56,6 +60,8 @@ public class IntegrationController {
 
     }
 
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+
     private final IntegrationService integrationService;
     private final AuthenticatedUserProvider userProvider;
 
@@ -100,6 +106,7 @@ public class IntegrationController {
         @Parameter(description = "Language code for sorting results", example = "fi") @RequestParam(required = false) String language,
         @Parameter(description = "Pagination parameter for page size", example = "100") @RequestParam(defaultValue = "10000") int pageSize,
         @Parameter(description = "Pagination parameter for start index", example = "0") @RequestParam(required = false, defaultValue = "0") int from,
+        @Parameter(description = "Cursor pagination parameter. Give empty value for the first page and nextCursor of the previous response for the following ones. Results are then ordered by id and the start index is ignored.") @RequestParam(required = false) String cursor,
         @Parameter(description = "Status enumerations in CSL format", example = "DRAFT,VALID") @RequestParam(required = false) Set<String> status,
         @Parameter(description = "URI of the requested containers in CSL format") @RequestParam(required = false) Set<String> uri,
         @Parameter(description = "Textual search query") @RequestParam(required = false) String searchTerm,
@@ -116,6 +123,7 @@ public class IntegrationController {
         containersRequest.setLanguage(language);
         containersRequest.setPageSize(pageSize);
         containersRequest.setPageFrom(from);
+        containersRequest.setCursor(cursor);
 
         // Change status into upper case
         if (status != null) {
@@ -183,7 +191,8 @@ public class IntegrationController {
         @Parameter(description = "After date filtering parameter, results will be resources with modified date after this ISO 8601 formatted date string") @RequestParam(required = false) String after,
         @Parameter(description = "Textual search query") @RequestParam(required = false) String searchTerm,
         @Parameter(description = "Pagination parameter for page size", example = "100") @RequestParam(defaultValue = "10000") int pageSize,
-        @Parameter(description = "Pagination parameter for start index", example = "0") @RequestParam(required = false, defaultValue = "0") int from) {
+        @Parameter(description = "Pagination parameter for start index", example = "0") @RequestParam(required = false, defaultValue = "0") int from,
+        @Parameter(description = "Cursor pagination parameter. Give empty value for the first page and nextCursor of the previous response for the following ones. Results are then ordered by id and the start index is ignored.") @RequestParam(required = false) String cursor) {
 
         if (logger.isDebugEnabled()) {
             logger.debug("integrationController.resources");
@@ -204,6 +213,7 @@ public class IntegrationController {
         request.setSearchTerm(searchTerm);
         request.setPageSize(pageSize);
         request.setPageFrom(from);
+        request.setCursor(cursor);
         request.setIncludeIncomplete(includeIncomplete);
         request.setIncludeIncompleteFrom(includeIncompleteFrom);
         request.setUri(uri);
@@ -239,6 +249,57 @@ public class IntegrationController {
         return integrationService.handleResources(resourceRequest);
     }
 
+    @Operation(summary = "Dump concept list", description = "Stream all resources, i.e., the concepts, matching the filters as newline delimited JSON, one resource per line. Intended for fetching large result sets without paging.")
+    @ApiResponse(
+        responseCode = "200",
+        description = "Returns newline delimited JSON with one concept per line",
+        content = { @Content(mediaType = NDJSON_VALUE, schema = @Schema(implementation = ResourcesResponse.class)) })
+    @ApiResponse(responseCode = "400", description = "Invalid request parammeters suplied")
+    @ApiResponse(responseCode = "500", description = "Internal server error")
+    @GetMapping(path = "/resources/dump", produces = NDJSON_VALUE)
+    void dumpResources(
+        @Parameter(description = "Container (terminology) URL list. If not set then dump from all containers.") @RequestParam(required = false) Set<String> container,
+        @Parameter(description = "Resource (concept) uri list. If set then exclude given resources from results.") @RequestParam(required = false) Set<String> filter,
+        @Parameter(description = "Status enumerations in CSL format", example = "DRAFT,VALID") @RequestParam(required = false) Set<String> status,
+        @Parameter(description = "Boolean whether to ignore contributor checks and include all incomplete content in the response") @RequestParam(required = false) boolean includeIncomplete,
+        @Parameter(description = "List of organization UUIDs to use in contributor checks for incomplete content. Checks are done on container level.") @RequestParam(required = false) Set<String> includeIncompleteFrom,
+        @Parameter(description = "Before date filtering parameter, results will be resources with modified date before this ISO 8601 formatted date string") @RequestParam(required = false) String before,
+        @Parameter(description = "After date filtering parameter, results will be resources with modified date after this ISO 8601 formatted date string") @RequestParam(required = false) String after,
+        HttpServletResponse response) throws IOException {
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("integrationController.resources.dump");
+        }
+        IntegrationResourceRequest request = new IntegrationResourceRequest();
+        request.setContainer(container);
+
+        // Change status into upper case
+        if (status != null) {
+            status = status.stream().map(String::toUpperCase).collect(Collectors.toSet());
+        }
+        request.setStatus(status);
+
+        request.setBefore(before);
+        request.setFilter(filter);
+        request.setAfter(after);
+        request.setIncludeIncomplete(includeIncomplete);
+        request.setIncludeIncompleteFrom(includeIncompleteFrom);
+        String validationResult = validateResourcesInput(request);
+        if (validationResult != null) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.setContentType(APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write("{\"errorMessage\":\"" + validationResult + "\"}");
+            return;
+        }
+
+        // Written straight to the servlet output stream instead of an async response body, so that long dumps
+        // are not cut by the async request timeout.
+        response.setContentType(NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        integrationService.dumpResources(request, response.getOutputStream());
+    }
+
     /**
      * Check whether incoming request parameters are valid Mainly checks that date
      * strings are acceptable
@@ -262,6 +323,13 @@ public class IntegrationController {
         if (containersRequest.getPageFrom() != null && containersRequest.getPageFrom() < 0) {
             rv.add("Illegal pageFrom:" + containersRequest.getPageFrom());
         }
+        if (containersRequest.getCursor() != null) {
+            try {
+                SearchCursor.decode(containersRequest.getCursor());
+            } catch (IllegalArgumentException e) {
+                rv.add("Illegal cursor:" + containersRequest.getCursor());
+            }
+        }
         if (containersRequest.getStatus() != null) {
             Set<String> statusSet = containersRequest.getStatus();
             Set<String> validStatuses = Stream
@@ -316,6 +384,13 @@ public class IntegrationController {
         if (containersRequest.getPageFrom() != null && containersRequest.getPageFrom() < 0) {
             rv.add("Illegal pageFrom:" + containersRequest.getPageFrom());
         }
+        if (containersRequest.getCursor() != null) {
+            try {
+                SearchCursor.decode(containersRequest.getCursor());
+            } catch (IllegalArgumentException e) {
+                rv.add("Illegal cursor:" + containersRequest.getCursor());
+            }
+        }
         if (containersRequest.getStatus() != null) {
             Set<String> statusSet = containersRequest.getStatus();
             Set<String> validStatuses = Stream
@@ -3,6 +3,9 @@ package fi.vm.yti.terminology.api.integration;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -16,16 +19,17 @@ import java.util.UUID;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.index.query.QueryStringQueryBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
@@ -44,6 +48,7 @@ import fi.vm.yti.terminology.api.TermedRequester;
 import fi.vm.yti.terminology.api.frontend.FrontendGroupManagementService;
 import fi.vm.yti.terminology.api.frontend.FrontendTermedService;
 import fi.vm.yti.terminology.api.index.IndexElasticSearchService;
+import fi.vm.yti.terminology.api.index.SearchResultCache;
 import fi.vm.yti.terminology.api.model.integration.ConceptSuggestionRequest;
 import fi.vm.yti.terminology.api.model.integration.ConceptSuggestionResponse;
 import fi.vm.yti.terminology.api.model.integration.ContainersResponse;
@@ -64,6 +69,7 @@ import fi.vm.yti.terminology.api.model.termed.MetaNode;
 import fi.vm.yti.terminology.api.model.termed.TypeId;
 import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
 import fi.vm.yti.terminology.api.util.JsonUtils;
+import fi.vm.yti.terminology.api.util.SearchCursor;
 
 @Service
 public class IntegrationService {
@@ -84,9 +90,13 @@ public class IntegrationService {
     private final static boolean CONFIG_DO_NOT_CHECK_STATE_OF_GIVEN_CONTAINERS = true;
 
     private static final Logger logger = LoggerFactory.getLogger(IntegrationService.class);
+    private static final ObjectMapper responseMapper = new ObjectMapper()
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    private static final int DUMP_BATCH_SIZE = 1000;
     private static final Set<String> sortLanguages = new HashSet<>(Arrays.asList("fi", "en", "sv"));
     private final FrontendTermedService termedService;
     private final IndexElasticSearchService elasticSearchService;
+    private final SearchResultCache searchResultCache;
     private final AuthenticatedUserProvider userProvider;
     private final String indexName;
     private final String VOCABULARY_INDEX = "vocabularies";
@@ -101,10 +111,11 @@ public class IntegrationService {
     @Autowired
     public IntegrationService(TermedRequester termedRequester, FrontendGroupManagementService groupManagementService,
             FrontendTermedService frontendTermedService, IndexElasticSearchService elasticSearchService,
-            AuthenticatedUserProvider userProvider, @Value("${search.index.name}") String indexName,
+            SearchResultCache searchResultCache, AuthenticatedUserProvider userProvider, @Value("${search.index.name}") String indexName,
             @Value("${namespace.root}") String namespaceRoot) {
         this.termedService = frontendTermedService;
         this.elasticSearchService = elasticSearchService;
+        this.searchResultCache = searchResultCache;
         this.userProvider = userProvider;
         this.indexName = indexName;
         this.namespacePattern = Pattern.compile(Pattern.quote(namespaceRoot) + "[a-z0-9][^/]+/");
@@ -116,58 +127,67 @@ public class IntegrationService {
             logger.debug("GET /containers requested. status=" + request.getStatus());
         }
 
+        String response;
+        try {
+            response = searchResultCache.get(Arrays.asList("containers", responseMapper.writeValueAsString(request)),
+                    () -> searchContainers(request), IndexElasticSearchService.VOCABULARY_INDEX);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        if (response == null) {
+            return new ResponseEntity<>("{}", HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    /**
+     * @return containers response as JSON, null if it could not be serialized
+     */
+    private String searchContainers(IntegrationContainerRequest request) {
+
         SearchRequest sr = createContainersQuery(request);
         if (logger.isDebugEnabled()) {
             logger.debug("HandleContainers() query=" + sr.source().toString());
         }
 
-        JsonNode r = elasticSearchService.freeSearchFromIndex(sr);
-
-        // logger.info(" result:" + JsonUtils.prettyPrintJsonAsString(r));
-        // Use highLevel API result so
-        logger.debug("Raw json-result:" + r);
         Meta meta = new Meta();
         meta.setAfter(request.getAfter());
         meta.setPageSize(request.getPageSize());
         meta.setFrom(request.getPageFrom());
         // Response item list
         List<ContainersResponse> resp = new ArrayList<>();
-        if (r != null) {
-            r = r.get("hits");
-            // Total hits
-            if (r.get("total") != null) {
-                meta.setTotalResults(r.get("total").asInt());
+        int[] hitCount = { 0 };
+        JsonNode[] lastSort = { null };
+        long total = elasticSearchService.searchSources(sr, (source, sort) -> {
+            hitCount[0]++;
+            lastSort[0] = sort;
+            if (source != null) {
+                ContainersResponse cr = parseContainerResponse(source);
+                // Set return type
+                cr.setType("terminology");
+                resp.add(cr);
+            } else {
+                logger.error("Missing containers source");
             }
-            r = r.get("hits");
-            r.forEach(hit -> {
-                JsonNode source = hit.get("_source");
-                if (source != null) {
-                    // System.out.println("containers-Response=" +
-                    // JsonUtils.prettyPrintJsonAsString(source));
-                    ContainersResponse cr = parseContainerResponse(source);
-                    // Set return type
-                    cr.setType("terminology");
-                    resp.add(cr);
-                } else {
-                    logger.error("Missing containers source. Hits:" + hit);
-                }
-            });
-            meta.setResultCount(r.size());
+        });
+        meta.setTotalResults((int) total);
+        meta.setResultCount(hitCount[0]);
+        if (request.getCursor() != null) {
+            meta.setFrom(null);
+            setNextCursor(meta, sr, hitCount[0], lastSort[0]);
         }
 
         ResponseWrapper<ContainersResponse> wrapper = new ResponseWrapper<>();
         wrapper.setMeta(meta);
         wrapper.setResults(resp);
         
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
         try {
-            return new ResponseEntity<>(mapper.writeValueAsString(wrapper), HttpStatus.OK);
+            return responseMapper.writeValueAsString(wrapper);
         } catch (JsonProcessingException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
-        return new ResponseEntity<>("{}", HttpStatus.UNPROCESSABLE_ENTITY);
+        return null;
     }
 
     private SearchRequest createContainersQuery(IntegrationContainerRequest request) {
@@ -257,8 +277,7 @@ public class IntegrationService {
 
         // if search-term is given, match for all labels
         if (request.getSearchTerm() != null && !request.getSearchTerm().isEmpty()) {
-            QueryStringQueryBuilder labelQuery = ElasticRequestUtils.buildPrefixSuffixQuery(request.getSearchTerm())
-                    .field("properties.prefLabel.value");
+            QueryBuilder labelQuery = ElasticRequestUtils.buildTerminologyLabelQuery(request.getSearchTerm());
             mustList.add(labelQuery);
         }
 
@@ -280,15 +299,17 @@ public class IntegrationService {
             sourceBuilder.size(10000);
         }
 
-        String[] includeFields = new String[] { "id", "properties.prefLabel", "properties.language",
-                "properties.description", "createdDate", "lastModifiedDate", "properties.status.value",
+        String[] includeFields = new String[] { "id", "properties.prefLabel", "languageCodes",
+                "descriptionPlain", "createdDate", "lastModifiedDate", "properties.status.value",
                 "uri", "references.contributor.id" };
         sourceBuilder.fetchSource(includeFields, null);
         // Add endpoint into the request
         SearchRequest sr = new SearchRequest(VOCABULARY_INDEX).source(sourceBuilder);
         // Add label sorting according to label
 
-        if (request.getLanguage() != null && !request.getLanguage().isEmpty()) {
+        if (request.getCursor() != null) {
+            addCursor(request.getCursor(), sourceBuilder);
+        } else if (request.getLanguage() != null && !request.getLanguage().isEmpty()) {
             // System.out.println("Add sort language:" + request.getLanguage());
             addLanguagePrefLabelSort(request.getLanguage(), "uri", "uri", sourceBuilder);
         }
@@ -312,14 +333,11 @@ public class IntegrationService {
             logger.debug("Parse incoming:\n" + JsonUtils.prettyPrintJsonAsString(source));
         }
 
+        JsonNode properties = source.path("properties");
+
         // Some vocabularies has no status at all
-        String stat = "DRAFT";
-        if (source.findPath("status") != null && !source.findPath("status").isTextual()) {
-            if (!source.findPath("status").findPath("value").isNull()
-                    && !source.findPath("status").findPath("value").asText().isEmpty())
-                stat = source.findPath("status").findPath("value").asText();
-        }
-        respItem.setStatus(stat);
+        String stat = properties.path("status").path(0).path("value").asText();
+        respItem.setStatus(!stat.isEmpty() ? stat : "DRAFT");
 
         if (source.get("createdDate") != null) {
             respItem.setCreated(source.get("createdDate").asText());
@@ -340,62 +358,26 @@ public class IntegrationService {
         }
         respItem.setUri(uri);
 
-        JsonNode label = source.findPath("prefLabel");
-        if (label != null) {
-            Map<String, String> preflabs = new HashMap<>();
-            label.forEach(lb -> {
-                String lan = null;
-                String val = null;
-                if (lb.findPath("lang") != null) {
-                    lan = lb.findPath("lang").asText();
-                }
-                if (lb.findPath("value") != null) {
-                    val = lb.findPath("value").asText();
-                }
-                if (lan != null && val != null) {
-                    preflabs.put(lan, val);
-                }
-            });
-            respItem.setPrefLabel(preflabs);
-        }
+        Map<String, String> preflabs = new HashMap<>();
+        properties.path("prefLabel").forEach(lb -> {
+            if (lb.path("lang").isTextual() && lb.path("value").isTextual()) {
+                preflabs.put(lb.get("lang").textValue(), lb.get("value").textValue());
+            }
+        });
+        respItem.setPrefLabel(preflabs);
 
-        JsonNode description = source.findPath("description");
-        if (description != null) {
-            Map<String, String> desc = new HashMap<>();
-            description.forEach(de -> {
-                String lan = null;
-                String val = null;
-                if (de.findPath("lang") != null) {
-                    lan = de.findPath("lang").asText();
-                }
-                if (de.findPath("value") != null) {
-                    val = de.findPath("value").asText();
-                    val = Jsoup.clean(val, Whitelist.none());
-                }
-                if (lan != null && val != null) {
-                    desc.put(lan, val);
-                }
-            });
-            respItem.setDescription(desc);
+        // Description and languages are sanitized when the vocabulary is indexed
+        Map<String, String> desc = new HashMap<>();
+        source.path("descriptionPlain").fields().forEachRemaining(de -> desc.put(de.getKey(), de.getValue().asText()));
+        respItem.setDescription(desc);
 
-            List<String> languageList = new ArrayList<String>();
-            // Add hard-coded language-list
-            JsonNode lang = source.findPath("language");
-            if (lang != null) {
-                lang.forEach(de -> {
-                    String val = null;
-                    if (de.findPath("value") != null) {
-                        val = de.findPath("value").asText();
-                        val = Jsoup.clean(val, Whitelist.none());
-                        languageList.add(val);
-                    }
-                });
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Vocabulary LANGS=" + languageList);
-                }
-                respItem.setLanguages(languageList);
-            }
+        List<String> languageList = new ArrayList<>();
+        source.path("languageCodes").forEach(lang -> languageList.add(lang.asText()));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Vocabulary LANGS=" + languageList);
         }
+        respItem.setLanguages(languageList);
+
         return respItem;
     }
 
@@ -410,11 +392,6 @@ public class IntegrationService {
             logger.debug("HandleVocabularies() query=" + sr.source().toString());
         }
 
-        JsonNode r = elasticSearchService.freeSearchFromIndex(sr);
-        // Use highLevel API result so
-        if (logger.isDebugEnabled()) {
-            logger.debug("raw json-result:" + r);
-        }
         Meta meta = new Meta();
         meta.setAfter(request.getAfter());
         meta.setPageSize(request.getPageSize());
@@ -426,31 +403,28 @@ public class IntegrationService {
         }
         // Response item list
         List<ResourcesResponse> resp = new ArrayList<>();
-        if (r != null) {
-            r = r.get("hits");
-            // Total hits
-            if (r.get("total") != null) {
-                meta.setTotalResults(r.get("total").asInt());
-            }
-            r = r.get("hits");
-            r.forEach(hit -> {
-                JsonNode source = hit.get("_source");
-                if (source != null) {
-                    ResourcesResponse node = parseResourceResponse(source);
-                    node.setType("concept");
-                    if (node.getUri() != null && node.getPrefLabel() != null && node.getStatus() != null) {
-                        resp.add(node);
-                    } else {
-                        logger.error("Resource response missing mandatory fields. dropping " + node);
-                    }
+        int[] hitCount = { 0 };
+        JsonNode[] lastSort = { null };
+        long total = elasticSearchService.searchSources(sr, (source, sort) -> {
+            hitCount[0]++;
+            lastSort[0] = sort;
+            if (source != null) {
+                ResourcesResponse node = parseResourceResponse(source);
+                node.setType("concept");
+                if (node.getUri() != null && node.getPrefLabel() != null && node.getStatus() != null) {
+                    resp.add(node);
                 } else {
-                    logger.error("handleResources hit=" + hit);
+                    logger.error("Resource response missing mandatory fields. dropping " + node);
                 }
-            });
-            meta.setResultCount(r.size());
-        } else {
-            // Empty result list
-            meta.setResultCount(0);
+            } else {
+                logger.error("handleResources hit without source");
+            }
+        });
+        meta.setTotalResults((int) total);
+        meta.setResultCount(hitCount[0]);
+        if (request.getCursor() != null) {
+            meta.setFrom(null);
+            setNextCursor(meta, sr, hitCount[0], lastSort[0]);
         }
         if (logger.isDebugEnabled()) {
             logger.debug("total result count=" + meta.getTotalResults());
@@ -461,10 +435,8 @@ public class IntegrationService {
         wrapper.setMeta(meta);
         wrapper.setResults(resp);
 
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
         try {
-            return new ResponseEntity<>(mapper.writeValueAsString(wrapper), HttpStatus.OK);
+            return new ResponseEntity<>(responseMapper.writeValueAsString(wrapper), HttpStatus.OK);
         } catch (JsonProcessingException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -472,6 +444,60 @@ public class IntegrationService {
         return new ResponseEntity<>("{}", HttpStatus.UNPROCESSABLE_ENTITY);
     }
 
+    /**
+     * Writes all resources matching the request to the output as newline delimited JSON, one resource per
+     * line. The resources are read with a scroll in batches of {@link #DUMP_BATCH_SIZE} and the output is
+     * flushed after each batch, so memory use does not grow with the result size. Paging, sorting and
+     * cursor parameters of the request are ignored.
+     */
+    void dumpResources(IntegrationResourceRequest request, OutputStream out) throws IOException {
+
+        IntegrationResourceRequest dumpRequest = new IntegrationResourceRequest(request.getContainer(),
+                request.getSearchTerm(), request.getUri(), null, request.getStatus(), request.getBefore(),
+                request.getAfter(), request.getFilter(), request.getIncludeIncomplete(),
+                request.getIncludeIncompleteFrom(), DUMP_BATCH_SIZE, 0);
+        SearchRequest sr = createResourcesQuery(dumpRequest);
+        sr.source().sort("_doc");
+        if (logger.isDebugEnabled()) {
+            logger.debug("dumpResources() query=" + sr.source().toString());
+        }
+
+        ObjectWriter writer = responseMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        int[] lineCount = { 0 };
+
+        try (JsonGenerator generator = responseMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            try {
+                elasticSearchService.scrollSources(sr, source -> {
+                    if (source == null) {
+                        return;
+                    }
+                    ResourcesResponse node = parseResourceResponse(source);
+                    node.setType("concept");
+                    if (node.getUri() == null || node.getPrefLabel() == null || node.getStatus() == null) {
+                        logger.error("Resource response missing mandatory fields. dropping " + node);
+                        return;
+                    }
+                    try {
+                        writer.writeValue(generator, node);
+                        generator.writeRaw('\n');
+                        if (++lineCount[0] % DUMP_BATCH_SIZE == 0) {
+                            generator.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("dumpResources() wrote " + lineCount[0] + " resources");
+        }
+    }
+
     /**
      * Create resources elastic query. Default intepretation is and. So if multiple fields are defined, result is logical AND
      * between them. For instanse given containers(A,B) and uris(x,y) it returns x,y if those belongs into those namespaces. However
@@ -566,8 +592,7 @@ public class IntegrationService {
         // if search-term is given, match for all labels
         if (request.getSearchTerm() != null && !request.getSearchTerm().isEmpty()) {
             logger.info("Additional SearchTerm=" + request.getSearchTerm());
-            QueryStringQueryBuilder labelQuery = ElasticRequestUtils.buildPrefixSuffixQuery(request.getSearchTerm())
-                    .field("label.*");
+            QueryBuilder labelQuery = ElasticRequestUtils.buildConceptLabelQuery(request.getSearchTerm());
             mustList.add(labelQuery);
         }
 
@@ -611,7 +636,9 @@ public class IntegrationService {
         // Add endpoint into the request
         SearchRequest sr = new SearchRequest(CONCEPTS_INDEX).source(sourceBuilder);
         // Add label sorting according to label
-        if (request.getLanguage() != null && !request.getLanguage().isEmpty()) {
+        if (request.getCursor() != null) {
+            addCursor(request.getCursor(), sourceBuilder);
+        } else if (request.getLanguage() != null && !request.getLanguage().isEmpty()) {
             addLanguagePrefLabelSort(request.getLanguage(), "sortByLabel.fi", "label", sourceBuilder);
         }
         if (logger.isDebugEnabled()) {
@@ -699,6 +726,28 @@ public class IntegrationService {
         return respItem;
     }
 
+    /**
+     * Pages with search_after over the unique document id instead of from, so that each page costs the same
+     * regardless of how deep it is.
+     */
+    private void addCursor(final String cursor, final SearchSourceBuilder searchBuilder) {
+        searchBuilder.from(0);
+        searchBuilder.sort("id", SortOrder.ASC);
+        Object[] searchAfter = SearchCursor.decode(cursor);
+        if (searchAfter.length > 0) {
+            searchBuilder.searchAfter(searchAfter);
+        }
+    }
+
+    /**
+     * Sets the cursor of the next page if the page was full, i.e., there may be more results.
+     */
+    private void setNextCursor(final Meta meta, final SearchRequest sr, final int hitCount, final JsonNode lastSort) {
+        if (lastSort != null && hitCount > 0 && hitCount >= sr.source().size()) {
+            meta.setNextCursor(SearchCursor.encode(lastSort));
+        }
+    }
+
     private void addLanguagePrefLabelSort(final String language, final String backupSortField,
             final String sortFieldWithoutLanguage, final SearchSourceBuilder searchBuilder) {
         if (language != null && !language.isEmpty()) {
@@ -909,34 +958,7 @@ public class IntegrationService {
      */
     private Set<String> resolveTerminologiesMatchingOrganizations(Set<String> organizationIds,
             Set<String> onlyTheseNsUris) {
-        Set<String> ret = new HashSet<>();
-        try {
-            QueryBuilder query = QueryBuilders.termsQuery("references.contributor.id", organizationIds);
-            if (onlyTheseNsUris != null && !onlyTheseNsUris.isEmpty()) {
-                BoolQueryBuilder compound = QueryBuilders.boolQuery().must(query);
-                for (String nsUri : onlyTheseNsUris) {
-                    compound.should(QueryBuilders.prefixQuery("uri", nsUri));
-                }
-                query = compound.minimumShouldMatch(1);
-            }
-            SearchRequest request = new SearchRequest("vocabularies")
-                    .source(new SearchSourceBuilder().query(query).size(1000));
-            // logger.debug("Matching terminologies request: " + request.toString());
-            JsonNode response = elasticSearchService.freeSearchFromIndex(request);
-            if (response != null) {
-                JsonNode hitsMeta = response.get("hits");
-                if (hitsMeta != null) {
-                    JsonNode hits = hitsMeta.get("hits");
-                    if (hits != null) {
-                        for (JsonNode hit : hits) {
-                            ret.add(hit.get("_source").get("type").get("graph").get("id").textValue());
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error while resolving terminologies matching contributors.", e);
-        }
+        Set<String> ret = elasticSearchService.terminologiesMatchingOrganizations(organizationIds, null, onlyTheseNsUris);
         logger.debug(
                 "Resolved " + ret.size() + " matching terminologies for " + organizationIds.size() + " organizations"
                         + (onlyTheseNsUris != null ? " (" + onlyTheseNsUris.size() + " limiting URIs)" : ""));
@@ -27,6 +27,7 @@ import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
+import fi.vm.yti.terminology.api.TermedMetadataCache;
 import fi.vm.yti.terminology.api.TermedRequester;
 import fi.vm.yti.terminology.api.model.termed.GenericDeleteAndSave;
 import fi.vm.yti.terminology.api.model.termed.GenericNode;
@@ -48,16 +49,19 @@ public class MigrationService {
 
     private static Logger log = LoggerFactory.getLogger(MigrationService.class);
     private final TermedRequester termedRequester;
+    private final TermedMetadataCache metadataCache;
     private final ObjectMapper objectMapper;
 
     @Autowired
-    MigrationService(TermedRequester termedRequester, ObjectMapper objectMapper) {
+    MigrationService(TermedRequester termedRequester, TermedMetadataCache metadataCache, ObjectMapper objectMapper) {
         this.termedRequester = termedRequester;
+        this.metadataCache = metadataCache;
         this.objectMapper = objectMapper;
     }
 
     public void createGraph(Graph graph) {
         termedRequester.exchange("/graphs", POST, Parameters.empty(), String.class, graph);
+        metadataCache.graphChanged(graph.getId());
     }
 
     public void deleteVocabularyGraph(UUID graphId) {
@@ -73,6 +77,7 @@ public class MigrationService {
 
     private void deleteGraph(UUID graphId) {
         termedRequester.exchange("/graphs/" + graphId, DELETE, Parameters.empty(), String.class);
+        metadataCache.graphChanged(graphId);
     }
 
     private @NotNull List<Identifier> getAllNodeIdentifiers(UUID graphId) {
@@ -105,6 +110,7 @@ public class MigrationService {
         params.add("batch", "true");
 
         termedRequester.exchange("/graphs/" + graphId + "/types", DELETE, params, String.class, metaNodes);
+        metadataCache.graphChanged(graphId);
     }
 
     public void updateAndDeleteInternalNodes(GenericDeleteAndSave deleteAndSave) {
@@ -172,6 +178,7 @@ public class MigrationService {
         params.add("batch", "true");
 
         termedRequester.exchange("/graphs/" + graphId + "/types", POST, params, String.class, metaNodes);
+        metadataCache.graphChanged(graphId);
     }
 
     public @NotNull List<MetaNode> getTypes(UUID graphId) {
@@ -202,7 +209,7 @@ public class MigrationService {
         params.add("max", "-1");
 
         return requireNonNull(
-                termedRequester.exchange("/graphs", GET, params, new ParameterizedTypeReference<List<Graph>>() {
+                termedRequester.exchangeCached(null, "/graphs", params, new ParameterizedTypeReference<List<Graph>>() {
                 }));
     }
 
@@ -18,6 +18,7 @@ public class IntegrationContainerRequest {
     private Set<String> filter;
     private Integer pageSize;
     private Integer pageFrom;
+    private String cursor;
 
     public IntegrationContainerRequest(){}
 
@@ -134,6 +135,14 @@ public class IntegrationContainerRequest {
         this.pageFrom = pageFrom;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(final String cursor) {
+        this.cursor = cursor;
+    }
+
     @Override
     public String toString() {
         return "IntegrationResourceRequest{" +
@@ -145,6 +154,7 @@ public class IntegrationContainerRequest {
             ", filter=" + filter +
             ", pageSize=" + pageSize +
             ", pageFrom=" + pageFrom +
+            ", cursor='" + cursor + '\'' +
             '}';
     }
 
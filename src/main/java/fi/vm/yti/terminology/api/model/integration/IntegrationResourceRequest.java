@@ -33,6 +33,7 @@ public class IntegrationResourceRequest {
 
     private Integer pageSize;
     private Integer pageFrom;
+    private String cursor;
 
     public IntegrationResourceRequest(){}
 
@@ -154,6 +155,14 @@ public class IntegrationResourceRequest {
         this.pageFrom = pageFrom;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(final String cursor) {
+        this.cursor = cursor;
+    }
+
     @Override
     public String toString() {
         return "IntegrationResourceRequest{" +
@@ -169,6 +178,7 @@ public class IntegrationResourceRequest {
             ", includeIncompleteFrom=" + includeIncompleteFrom +
             ", pageSize=" + pageSize +
             ", pageFrom=" + pageFrom +
+            ", cursor='" + cursor + '\'' +
             '}';
     }
 
@@ -15,7 +15,7 @@ import com.fasterxml.jackson.databind.util.StdDateFormat;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 @XmlType(
-    propOrder = { "code", "message", "pageSize", "from", "resultCount", "totalResults", "after", "afterResourceUrl", "nextPage" }
+    propOrder = { "code", "message", "pageSize", "from", "resultCount", "totalResults", "after", "afterResourceUrl", "nextPage", "nextCursor" }
 )
 @Schema(
     description = "Meta information model for API responses"
@@ -33,6 +33,7 @@ public class Meta {
     private Date after;
     private String afterResourceUrl;
     private String nextPage;
+    private String nextCursor;
     private String entityIdentifier;
     private String nonTranslatableMessage;
 
@@ -161,6 +162,14 @@ public class Meta {
         this.nextPage = nextPage;
     }
 
+    public String getNextCursor() {
+        return this.nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
     public static Date parseAfterFromString(String after) {
         if (after != null) {
             StdDateFormat dateFormat = new StdDateFormat().withColonInTimeZone(true);
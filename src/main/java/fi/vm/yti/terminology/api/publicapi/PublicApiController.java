@@ -4,6 +4,7 @@ import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -22,6 +23,9 @@ import static org.springframework.web.bind.annotation.RequestMethod.GET;
 public class PublicApiController {
 
     private static final Logger logger = LoggerFactory.getLogger(PublicApiController.class);
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_RESULT_WINDOW = 10000;
     private final PublicApiTermedService termedService;
     private final PublicApiElasticSearchService publicApiElasticSearchService;
 
@@ -40,14 +44,32 @@ public class PublicApiController {
     }
 
     @Operation(summary = "Search for concepts", description = "Perform index search for concepts", deprecated = true)
-    @ApiResponse(responseCode = "200", description = "Search result concept list as a JSON array")
+    @ApiResponse(responseCode = "200", description = "Search result concept list as a JSON array. If there may be more results, the cursor of the next page is returned in the " + NEXT_CURSOR_HEADER + " header.")
+    @ApiResponse(responseCode = "400", description = "Invalid paging parameters")
     @GetMapping(value = "/searchconcept", produces = APPLICATION_JSON_VALUE)
-    List<PublicApiConcept> searchConceptWithStatus(@Parameter(description = "Serch term for elastic search") @RequestParam(required = false, defaultValue = "") String searchTerm,
-                                                   @Parameter(description = "Terminology ID. If missing search concepts from all terminologies.") @RequestParam(required = false) String vocabularyId,
-                                                   @Parameter(description = "Status for filtering. If missing, show all.") @RequestParam(required = false) String status,
-                                                   @Parameter(description = "Language for filtering. If missing, search labels in any language-") @RequestParam(required = false) String language) {
+    ResponseEntity<List<PublicApiConcept>> searchConceptWithStatus(@Parameter(description = "Serch term for elastic search") @RequestParam(required = false, defaultValue = "") String searchTerm,
+                                                                   @Parameter(description = "Terminology ID. If missing search concepts from all terminologies.") @RequestParam(required = false) String vocabularyId,
+                                                                   @Parameter(description = "Status for filtering. If missing, show all.") @RequestParam(required = false) String status,
+                                                                   @Parameter(description = "Language for filtering. If missing, search labels in any language-") @RequestParam(required = false) String language,
+                                                                   @Parameter(description = "Pagination parameter for page size", example = "100") @RequestParam(required = false, defaultValue = "100") int pageSize,
+                                                                   @Parameter(description = "Pagination parameter for start index", example = "0") @RequestParam(required = false, defaultValue = "0") int from,
+                                                                   @Parameter(description = "Cursor pagination parameter. Give empty value for the first page and the " + NEXT_CURSOR_HEADER + " header of the previous response for the following ones. The start index is then ignored.") @RequestParam(required = false) String cursor) {
 
         logger.info("GET /searchconcept requested");
-        return publicApiElasticSearchService.searchConcept(searchTerm, vocabularyId, status, language);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE || from < 0 || from + pageSize > MAX_RESULT_WINDOW) {
+            return ResponseEntity.badRequest().build();
+        }
+        PublicApiElasticSearchService.ConceptPage page;
+        try {
+            page = publicApiElasticSearchService.searchConcept(searchTerm, vocabularyId, status, language, from, pageSize, cursor);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected concept search cursor: '" + cursor + "'");
+            return ResponseEntity.badRequest().build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getConcepts());
     }
 }
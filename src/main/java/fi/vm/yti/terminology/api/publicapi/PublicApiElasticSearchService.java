@@ -2,12 +2,10 @@ package fi.vm.yti.terminology.api.publicapi;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
 import java.util.UUID;
 
 import org.apache.http.HttpHost;
@@ -16,20 +14,27 @@ import org.apache.http.nio.entity.NStringEntity;
 import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
-import org.jsoup.Jsoup;
-import org.jsoup.safety.Whitelist;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MultiMatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.vm.yti.terminology.api.index.IndexTermedService;
+import fi.vm.yti.terminology.api.index.SearchResultCache;
 import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import fi.vm.yti.terminology.api.util.SearchCursor;
+import static fi.vm.yti.terminology.api.index.IndexElasticSearchService.CONCEPT_INDEX;
+import static fi.vm.yti.terminology.api.index.IndexElasticSearchService.VOCABULARY_INDEX;
 import static fi.vm.yti.terminology.api.util.ElasticRequestUtils.responseContentAsJson;
 
 @Service
@@ -43,9 +48,10 @@ public class PublicApiElasticSearchService {
     private final RestClient esRestClient;
 
     private final IndexTermedService indexTermedService;
+    private final SearchResultCache searchResultCache;
 
-    private static Locale[] availableLocales;
-    private static Set<String> uniqueNonNullLanguages;
+    private static final String[] sourceFields = { "id", "uri", "status", "labelPlain", "definitionPlain", "vocabulary.id", "vocabulary.uri", "vocabulary.labelPlain" };
+    private static final ObjectMapper objectMapper = new ObjectMapper();
 
     @Autowired
     public PublicApiElasticSearchService(@Value("${search.host.url}") String searchHostUrl,
@@ -53,117 +59,149 @@ public class PublicApiElasticSearchService {
                                          @Value("${search.host.scheme}") String searchHostScheme,
                                          @Value("${search.index.name}") String indexName,
                                          @Value("${search.index.mapping.type}") String indexMappingType,
-                                         IndexTermedService indexTermedService) {
+                                         IndexTermedService indexTermedService,
+                                         SearchResultCache searchResultCache) {
         this.indexName = indexName;
         this.indexMappingType = indexMappingType;
         this.esRestClient = RestClient.builder(new HttpHost(searchHostUrl, searchHostPort, searchHostScheme)).build();
         this.indexTermedService = indexTermedService;
+        this.searchResultCache = searchResultCache;
     }
 
-    static {
-        availableLocales = Locale.getAvailableLocales();
-        uniqueNonNullLanguages = new HashSet<>();
-
-        for (Locale locale : availableLocales) {
-            if (!locale.getLanguage().isEmpty() && !uniqueNonNullLanguages.contains(locale.getLanguage())) {
-                uniqueNonNullLanguages.add(locale.getLanguage());
-            }
-        }
+    /**
+     * @param from   start index of the page, ignored when a cursor is given
+     * @param size   page size
+     * @param cursor cursor of the page to return, given as next cursor with the previous page. Empty for
+     *               the first page, null to page with the start index instead.
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    ConceptPage searchConcept(String searchTerm,
+                              String vocabularyId,
+                              String status,
+                              String language,
+                              int from,
+                              int size,
+                              String cursor) {
+        return searchResultCache.get(Arrays.asList("publicSearchConcept", searchTerm, vocabularyId, status, language, from, size, cursor),
+            () -> doSearchConcept(searchTerm, vocabularyId, status, language, from, size, cursor), CONCEPT_INDEX, VOCABULARY_INDEX);
     }
 
-    List<PublicApiConcept> searchConcept(String searchTerm,
-                                         String vocabularyId,
-                                         String status,
-                                         String language) {
+    private ConceptPage doSearchConcept(String searchTerm,
+                                        String vocabularyId,
+                                        String status,
+                                        String language,
+                                        int from,
+                                        int size,
+                                        String cursor) {
 
         final String endpoint = "/" + indexName + "/" + indexMappingType + "/_search";
         final boolean terminologyGiven = vocabularyId != null && !vocabularyId.isEmpty() && !"0".equals(vocabularyId);
 
-        StringBuilder queryBuilder = new StringBuilder();
+        String labelField = "label.*";
         if (language != null && !language.isEmpty() && ElasticRequestUtils.LANGUAGE_CODE_PATTERN.matcher(language).matches()) {
-            String labelPart = "label." + language;
-            logger.debug("Searching concepts based on '" + labelPart + "'");
-            if (!terminologyGiven) {
-                queryBuilder.append("{\"query\":{\"bool\":{\"must\":[{\"multi_match\":{\"query\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(searchTerm, queryBuilder);
-                queryBuilder.append("\",\"fields\":[\"" + labelPart + "\"],\"type\":\"best_fields\",\"minimum_should_match\":\"90%\"}}],\"must_not\":[]}},\"highlight\":{\"pre_tags\":[\"<b>\"],\"post_tags\":[\"</b>\"],\"fields\":{\"label.*\":{}}},\"from\":0,\"size\":100,\"sort\":[\"_score\"]}");
-            } else {
-                queryBuilder.append("{\"query\":{\"bool\":{\"must\":[{\"match\":{\"vocabulary.id\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(vocabularyId, queryBuilder);
-                queryBuilder.append("\"}},{\"multi_match\":{\"query\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(searchTerm, queryBuilder);
-                queryBuilder.append("\",\"fields\":[\"" + labelPart + "\"],\"type\":\"best_fields\",\"minimum_should_match\":\"90%\"}}],\"must_not\":[]}},\"highlight\":{\"pre_tags\":[\"<b>\"],\"post_tags\":[\"</b>\"],\"fields\":{\"label.*\":{}}},\"from\":0,\"size\":100,\"sort\":[\"_score\"]}");
+            labelField = "label." + language;
+            logger.debug("Searching concepts based on '" + labelField + "'");
+        } else if (language != null && !language.isEmpty()) {
+            logger.warn("Rejected concept search language specifier: '" + language + "'");
+        }
+
+        BoolQueryBuilder query = QueryBuilders.boolQuery();
+        if (terminologyGiven) {
+            query.must(QueryBuilders.matchQuery("vocabulary.id", vocabularyId));
+        }
+        query.must(QueryBuilders.multiMatchQuery(searchTerm, labelField)
+            .type(MultiMatchQueryBuilder.Type.BEST_FIELDS)
+            .minimumShouldMatch("90%"));
+        if (status != null && !status.isEmpty()) {
+            query.filter(QueryBuilders.termQuery("status", status.toUpperCase(Locale.ROOT)));
+        }
+
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+            .query(query)
+            .size(size)
+            .fetchSource(sourceFields, null)
+            .sort(SortBuilders.scoreSort())
+            // Tie breaker for stable pages and unique cursors
+            .sort(SortBuilders.fieldSort("id").order(SortOrder.ASC));
+        if (cursor != null) {
+            sourceBuilder.from(0);
+            Object[] searchAfter = SearchCursor.decode(cursor);
+            if (searchAfter.length > 0) {
+                sourceBuilder.searchAfter(searchAfter);
             }
         } else {
-            if (language != null && !language.isEmpty()) {
-                logger.warn("Rejected concept search language specifier: '" + language + "'");
-            }
-            if (!terminologyGiven) {
-                queryBuilder.append("{\"query\":{\"bool\":{\"must\":[{\"multi_match\":{\"query\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(searchTerm, queryBuilder);
-                queryBuilder.append("\",\"fields\":[\"label.*\"],\"type\":\"best_fields\",\"minimum_should_match\":\"90%\"}}],\"must_not\":[]}},\"highlight\":{\"pre_tags\":[\"<b>\"],\"post_tags\":[\"</b>\"],\"fields\":{\"label.*\":{}}},\"from\":0,\"size\":100,\"sort\":[\"_score\"]}");
-            } else {
-                queryBuilder.append("{\"query\":{\"bool\":{\"must\":[{\"match\":{\"vocabulary.id\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(vocabularyId, queryBuilder);
-                queryBuilder.append("\"}},{\"multi_match\":{\"query\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(searchTerm, queryBuilder);
-                queryBuilder.append("\",\"fields\":[\"label.*\"],\"type\":\"best_fields\",\"minimum_should_match\":\"90%\"}}],\"must_not\":[]}},\"highlight\":{\"pre_tags\":[\"<b>\"],\"post_tags\":[\"</b>\"],\"fields\":{\"label.*\":{}}},\"from\":0,\"size\":100,\"sort\":[\"_score\"]}");
-            }
+            sourceBuilder.from(from);
         }
 
-        NStringEntity body = new NStringEntity(queryBuilder.toString(), ContentType.APPLICATION_JSON);
+        NStringEntity body = new NStringEntity(sourceBuilder.toString(), ContentType.APPLICATION_JSON);
 
         try {
             Request request = new Request("GET", endpoint);
             request.setEntity(body);
             Response response = esRestClient.performRequest(request);
-            ObjectMapper om = new ObjectMapper();
-            return getAsPublicApiConcepts(status, responseContentAsJson(om, response));
+            JsonNode hits = responseContentAsJson(objectMapper, response).path("hits").path("hits");
+            String nextCursor = null;
+            if (hits.size() == size && size > 0) {
+                nextCursor = SearchCursor.encode(hits.get(hits.size() - 1).path("sort"));
+            }
+            return new ConceptPage(getAsPublicApiConcepts(hits), nextCursor);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private List<PublicApiConcept> getAsPublicApiConcepts(String status,
-                                                          JsonNode concepts) {
+    private List<PublicApiConcept> getAsPublicApiConcepts(JsonNode hitsNode) {
         List<PublicApiConcept> result = new ArrayList<>();
-        JsonNode hitsNode = concepts.path("hits").path("hits");
         for (JsonNode jsonNode : hitsNode) {
-            boolean addItem = true;
             PublicApiConcept concept = new PublicApiConcept();
             concept.setId(UUID.fromString(jsonNode.path("_source").path("id").asText()));
             concept.setVocabularyId(UUID.fromString(jsonNode.path("_source").path("vocabulary").path("id").asText()));
             concept.setVocabularyUri(jsonNode.path("_source").path("vocabulary").path("uri").asText());
-            concept.setPrefLabel(extractLocalizableFromGivenField(jsonNode.path("_source"), "label"));
-            concept.setDefinition(extractLocalizableFromGivenField(jsonNode.path("_source"), "definition"));
-            concept.setVocabularyPrefLabel(extractLocalizableFromGivenField(jsonNode.path("_source").path("vocabulary"), "label"));
+            concept.setPrefLabel(extractLocalizableFromGivenField(jsonNode.path("_source"), "labelPlain"));
+            concept.setDefinition(extractLocalizableFromGivenField(jsonNode.path("_source"), "definitionPlain"));
+            concept.setVocabularyPrefLabel(extractLocalizableFromGivenField(jsonNode.path("_source").path("vocabulary"), "labelPlain"));
             concept.setUri(jsonNode.path("_source").path("uri").asText());
             concept.setStatus(jsonNode.path("_source").path("status").asText());
-
-            // Filtering out items which status  does not match to given one.
-            if (status != null && !status.isEmpty()) {
-                if (!concept.getStatus().equalsIgnoreCase(status)) {
-                    addItem = false;
-                }
-            }
-            if (addItem) {
-                result.add(concept);
-            }
+            result.add(concept);
         }
         return result;
     }
 
+    /**
+     * @param fieldName name of an object field holding plain text values by language, sanitized at index time
+     */
     public HashMap<String, String> extractLocalizableFromGivenField(JsonNode node,
                                                                     String fieldName) {
         HashMap<String, String> result = new HashMap<>();
 
-        uniqueNonNullLanguages.forEach(language -> {
-            JsonNode theNode = node.get(fieldName).get(language);
-            if (theNode != null) {
-                result.put(language, Jsoup.clean(node.get(fieldName).get(language).get(0).textValue(), Whitelist.none()));
+        node.path(fieldName).fields().forEachRemaining(entry -> {
+            if (entry.getValue().isTextual()) {
+                result.put(entry.getKey(), entry.getValue().textValue());
             }
         });
 
         return result;
     }
+
+    static final class ConceptPage {
+
+        private final List<PublicApiConcept> concepts;
+        private final String nextCursor;
+
+        ConceptPage(List<PublicApiConcept> concepts, String nextCursor) {
+            this.concepts = concepts;
+            this.nextCursor = nextCursor;
+        }
+
+        List<PublicApiConcept> getConcepts() {
+            return concepts;
+        }
+
+        /**
+         * @return cursor of the following page, null if this was the last one
+         */
+        String getNextCursor() {
+            return nextCursor;
+        }
+    }
 }
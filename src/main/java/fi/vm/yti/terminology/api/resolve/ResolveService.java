@@ -115,7 +115,7 @@ public class ResolveService {
         Parameters params = new Parameters();
         params.add("max", "-1");
 
-        return requireNonNull(termedRequester.exchange("/graphs", GET, params, new ParameterizedTypeReference<List<Graph>>() {
+        return requireNonNull(termedRequester.exchangeCached(null, "/graphs", params, new ParameterizedTypeReference<List<Graph>>() {
         }))
             .stream()
             .filter(g -> g.getCode().equalsIgnoreCase(prefix))
@@ -18,7 +18,6 @@ import static fi.vm.yti.terminology.api.util.CollectionUtils.mapToSet;
 import static fi.vm.yti.terminology.api.util.CollectionUtils.requireSingle;
 import static java.util.Collections.emptyList;
 import static org.springframework.context.annotation.ScopedProxyMode.INTERFACES;
-import static org.springframework.http.HttpMethod.GET;
 import static org.springframework.web.util.TagUtils.SCOPE_REQUEST;
 
 @Service
@@ -48,7 +47,7 @@ public class DefaultAuthorizationTermedService implements AuthorizationTermedSer
                 " OR type.id:" + TerminologicalVocabulary + ")");
         params.add("max", "-1");
 
-        List<GenericNode> result = termedRequester.exchange("/node-trees", GET, params, new ParameterizedTypeReference<List<GenericNode>>() {});
+        List<GenericNode> result = termedRequester.exchangeShared("/node-trees", params, new ParameterizedTypeReference<List<GenericNode>>() {});
 
         GenericNode vocabularyNode = requireSingle(result);
 
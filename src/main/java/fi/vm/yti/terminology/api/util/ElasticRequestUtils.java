@@ -5,7 +5,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -15,8 +14,11 @@ import java.util.stream.Collectors;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.Operator;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.index.query.QueryStringQueryBuilder;
+import org.elasticsearch.search.SearchHit;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,30 +43,48 @@ public final class ElasticRequestUtils {
         // prevent construction
     }
 
-    public static QueryStringQueryBuilder buildPrefixSuffixQuery(final String searchTerm) {
+    public static QueryBuilder buildConceptLabelQuery(final String searchTerm) {
+        return buildPrefixSuffixQuery(searchTerm, "label.*", "labelPrefix", "labelSuffix");
+    }
+
+    public static QueryBuilder buildTerminologyLabelQuery(final String searchTerm) {
+        return buildPrefixSuffixQuery(searchTerm, "properties.prefLabel.value", "properties.prefLabel.value.prefix", "properties.prefLabel.value.suffix");
+    }
+
+    /**
+     * Matches labels having a word which equals, starts with or ends with each word of the search term. Prefix
+     * and suffix matching use fields indexed with edge n-grams of the words and of the reversed words, so no
+     * wildcard queries are needed. A term given with explicit asterisks matches words with the given prefix or
+     * suffix, and only asterisks on both sides or within a word fall back to a wildcard query.
+     *
+     * @param field       (pattern of) the text field(s) of the labels
+     * @param prefixField field with edge n-grams of the label words
+     * @param suffixField field with edge n-grams of the reversed label words
+     */
+    public static QueryBuilder buildPrefixSuffixQuery(final String searchTerm,
+                                                      final String field,
+                                                      final String prefixField,
+                                                      final String suffixField) {
         if (searchTerm != null) {
             final String trimmed = searchTerm.trim().toLowerCase();
-            if (!searchTerm.isEmpty()) {
-                String parsedQuery = null;
+            if (!trimmed.isEmpty()) {
+                final String[] splitQuery = QUERY_SPLITTER_PATTERN.split(trimmed);
                 if (LUCENE_PLAIN_QUERY_PATTERN.matcher(trimmed).matches()) {
-                    final String[] splitQuery = QUERY_SPLITTER_PATTERN.split(trimmed);
                     if (splitQuery.length == 1) {
-                        parsedQuery = trimmed + " OR " + trimmed + "* OR *" + trimmed;
-                    } else if (splitQuery.length > 1) {
-                        parsedQuery = Arrays.stream(splitQuery).map(q -> "(" + q + " OR " + q + "* OR *" + q + ")").collect(Collectors.joining(" AND "));
+                        return prefixSuffixWordQuery(splitQuery[0], field, prefixField, suffixField);
                     }
+                    final BoolQueryBuilder query = QueryBuilders.boolQuery();
+                    for (String word : splitQuery) {
+                        query.must(prefixSuffixWordQuery(word, field, prefixField, suffixField));
+                    }
+                    return query;
                 } else if (LUCENE_GIVEN_QUERY_PATTERN.matcher(trimmed).matches()) {
-                    parsedQuery = trimmed;
-                }
-                if (parsedQuery != null) {
-                    final StandardQueryParser parser = new StandardQueryParser();
-                    try {
-                        parser.setAllowLeadingWildcard(true);
-                        LOG.debug("Using Lucene query: '" + parsedQuery + "'");
-                        return QueryBuilders.queryStringQuery(parser.parse(parsedQuery, "").toString());
-                    } catch (final QueryNodeException e) {
-                        // nop
+                    // Words of a given query are alternatives like with the default operator of a query string
+                    final BoolQueryBuilder query = QueryBuilders.boolQuery().minimumShouldMatch(1);
+                    for (String word : splitQuery) {
+                        query.should(givenWordQuery(word, field, prefixField, suffixField));
                     }
+                    return query;
                 }
             }
         }
@@ -72,6 +92,47 @@ public final class ElasticRequestUtils {
         throw new InvalidQueryException();
     }
 
+    private static QueryBuilder prefixSuffixWordQuery(final String word,
+                                                      final String field,
+                                                      final String prefixField,
+                                                      final String suffixField) {
+        return QueryBuilders.boolQuery()
+            .should(exactWordQuery(word, field))
+            .should(QueryBuilders.matchQuery(prefixField, word).operator(Operator.AND))
+            .should(QueryBuilders.matchQuery(suffixField, word).operator(Operator.AND))
+            .minimumShouldMatch(1);
+    }
+
+    private static QueryBuilder givenWordQuery(final String word,
+                                               final String field,
+                                               final String prefixField,
+                                               final String suffixField) {
+        final boolean leading = word.startsWith("*");
+        final boolean trailing = word.endsWith("*");
+        final String stripped = word.substring(leading ? 1 : 0, word.length() - (trailing ? 1 : 0));
+        if (stripped.indexOf('*') >= 0 || (leading && trailing)) {
+            final StandardQueryParser parser = new StandardQueryParser();
+            parser.setAllowLeadingWildcard(true);
+            try {
+                LOG.debug("Using Lucene query: '" + word + "'");
+                return QueryBuilders.queryStringQuery(parser.parse(word, "").toString()).field(field);
+            } catch (final QueryNodeException e) {
+                LOG.warn("Search term string disqualified: '" + word + "'");
+                throw new InvalidQueryException();
+            }
+        } else if (trailing) {
+            return QueryBuilders.matchQuery(prefixField, stripped).operator(Operator.AND);
+        } else if (leading) {
+            return QueryBuilders.matchQuery(suffixField, stripped).operator(Operator.AND);
+        }
+        return exactWordQuery(word, field);
+    }
+
+    private static QueryBuilder exactWordQuery(final String word,
+                                               final String field) {
+        return QueryBuilders.multiMatchQuery(word, field).operator(Operator.AND);
+    }
+
     public static @NotNull JsonNode responseContentAsJson(@NotNull ObjectMapper objectMapper,
                                                           @NotNull Response response) {
         try {
@@ -81,6 +142,14 @@ public final class ElasticRequestUtils {
         }
     }
 
+    /**
+     * Reads the source of a search hit from its raw bytes, without decoding it to a string first.
+     */
+    public static @NotNull JsonNode sourceAsJson(@NotNull ObjectMapper objectMapper,
+                                                 @NotNull SearchHit hit) throws IOException {
+        return objectMapper.readTree(hit.getSourceRef().streamInput());
+    }
+
     public static @NotNull String responseContentAsString(@NotNull Response response) {
         try (InputStream is = response.getEntity().getContent()) {
             return new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)).lines()
@@ -8,6 +8,8 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Whitelist;
 
 import java.io.IOException;
 import java.util.*;
@@ -57,6 +59,19 @@ public final class JsonUtils {
 	    return mapper.valueToTree(localizable);
 	}
 
+	/**
+	 * @return the first value of each language as plain text, with any markup removed
+	 */
+	public static @NotNull ObjectNode localizableToPlainJson(ObjectMapper mapper, @NotNull Map<String, List<String>> localizable) {
+	    ObjectNode output = mapper.createObjectNode();
+	    localizable.forEach((language, values) -> {
+	        if (!values.isEmpty() && values.get(0) != null) {
+	            output.put(language, Jsoup.clean(values.get(0), Whitelist.none()));
+	        }
+	    });
+	    return output;
+	}
+
 	public static @NotNull Map<String, List<String>> jsonToLocalizable(@NotNull ObjectMapper mapper, @NotNull JsonNode json) {
         try {
             return mapper.readValue(mapper.treeAsTokens(json), new TypeReference<Map<String, List<String>>>() {});
@@ -0,0 +1,62 @@
+package fi.vm.yti.terminology.api.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Opaque cursor for paging search results with search_after. The cursor holds the sort values
+ * of the last hit of the previous page as URL safe base64 encoded JSON array.
+ */
+public final class SearchCursor {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private SearchCursor() {
+        // prevent construction
+    }
+
+    public static String encode(JsonNode sortValues) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mapper.writeValueAsBytes(sortValues));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param cursor cursor returned with the previous page, empty for the first page
+     * @return sort values to search after, empty for the first page
+     * @throws IllegalArgumentException if the cursor is not one returned by {@link #encode}
+     */
+    public static Object[] decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return new Object[0];
+        }
+        try {
+            JsonNode sortValues = mapper.readTree(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+            if (sortValues == null || !sortValues.isArray() || sortValues.size() == 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            Object[] values = new Object[sortValues.size()];
+            for (int i = 0; i < values.length; i++) {
+                JsonNode value = sortValues.get(i);
+                if (value.isIntegralNumber()) {
+                    values[i] = value.longValue();
+                } else if (value.isNumber()) {
+                    values[i] = value.doubleValue();
+                } else if (value.isTextual()) {
+                    values[i] = value.textValue();
+                } else {
+                    throw new IllegalArgumentException("Invalid cursor: " + cursor);
+                }
+            }
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package fi.vm.yti.terminology.api;
+
+import fi.vm.yti.terminology.api.model.termed.GraphId;
+import fi.vm.yti.terminology.api.model.termed.NodeType;
+import fi.vm.yti.terminology.api.model.termed.TypeId;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermedMetadataCacheTest {
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private String fetch() {
+        return "response " + fetches.incrementAndGet();
+    }
+
+    @Test
+    public void graphChangeInvalidatesEntriesOfGraphAndEntriesSpanningGraphs() {
+        TermedMetadataCache cache = new TermedMetadataCache(10, 300, new SimpleMeterRegistry());
+        UUID graph = UUID.randomUUID();
+        UUID otherGraph = UUID.randomUUID();
+
+        assertEquals("response 1", cache.get(graph, "/types", this::fetch));
+        assertEquals("response 2", cache.get(otherGraph, "/types", this::fetch));
+        assertEquals("response 3", cache.get(null, "/graphs", this::fetch));
+        assertEquals("response 1", cache.get(graph, "/types", this::fetch));
+
+        cache.graphChanged(graph);
+
+        assertEquals("response 4", cache.get(graph, "/types", this::fetch));
+        assertEquals("response 2", cache.get(otherGraph, "/types", this::fetch));
+        assertEquals("response 5", cache.get(null, "/graphs", this::fetch));
+    }
+
+    @Test
+    public void onlyVocabularyNodeChangeInvalidatesEntries() {
+        TermedMetadataCache cache = new TermedMetadataCache(10, 300, new SimpleMeterRegistry());
+        UUID graph = UUID.randomUUID();
+        UUID otherGraph = UUID.randomUUID();
+
+        cache.get(graph, "/node-trees", this::fetch);
+        cache.get(otherGraph, "/node-trees", this::fetch);
+        cache.get(null, "/graphs", this::fetch);
+
+        cache.nodeChanged(new TypeId(NodeType.Concept, new GraphId(graph)));
+        assertEquals("response 1", cache.get(graph, "/node-trees", this::fetch));
+        assertEquals("response 3", cache.get(null, "/graphs", this::fetch));
+
+        cache.nodeChanged(new TypeId(NodeType.TerminologicalVocabulary, new GraphId(graph)));
+        assertEquals("response 4", cache.get(graph, "/node-trees", this::fetch));
+        assertEquals("response 2", cache.get(otherGraph, "/node-trees", this::fetch));
+        assertEquals("response 5", cache.get(null, "/graphs", this::fetch));
+    }
+
+    @Test
+    public void doesNotCacheResponseFetchedDuringInvalidation() {
+        TermedMetadataCache cache = new TermedMetadataCache(10, 300, new SimpleMeterRegistry());
+        UUID graph = UUID.randomUUID();
+
+        cache.get(graph, "/types", () -> {
+            cache.graphChanged(graph);
+            return fetch();
+        });
+
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,84 @@
+package fi.vm.yti.terminology.api.index;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AllNodesResultTest {
+
+    private static final String GRAPH = "00000000-0000-0000-0000-000000000001";
+    private static final String VOCABULARY = "00000000-0000-0000-0000-000000000002";
+    private static final String CONCEPT = "00000000-0000-0000-0000-000000000003";
+    private static final String TERM = "00000000-0000-0000-0000-000000000004";
+    private static final String BROADER = "00000000-0000-0000-0000-000000000005";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void readsConceptsWithTermLabels() throws Exception {
+        String json = "[" +
+                "{\"id\":\"" + VOCABULARY + "\",\"uri\":\"http://v\",\"type\":{\"id\":\"TerminologicalVocabulary\",\"graph\":{\"id\":\"" + GRAPH + "\"}}," +
+                "\"properties\":{\"prefLabel\":[{\"lang\":\"fi\",\"value\":\"sanasto\",\"regex\":\"(?s)^.*$\"}],\"description\":[{\"lang\":\"fi\",\"value\":\"x\"}]}}," +
+                "{\"id\":\"" + CONCEPT + "\",\"uri\":\"http://c\",\"code\":\"c\",\"createdDate\":\"2019-01-01\",\"lastModifiedDate\":\"2019-01-02\"," +
+                "\"type\":{\"id\":\"Concept\",\"graph\":{\"id\":\"" + GRAPH + "\"}}," +
+                "\"properties\":{\"definition\":[{\"lang\":\"fi\",\"value\":\"def\"}],\"status\":[{\"lang\":\"\",\"value\":\"VALID\"}],\"note\":[{\"lang\":\"fi\",\"value\":\"n\"}]}," +
+                "\"references\":{\"prefLabelXl\":[{\"id\":\"" + TERM + "\",\"type\":{\"id\":\"Term\",\"graph\":{\"id\":\"" + GRAPH + "\"}}}]," +
+                "\"broader\":[{\"id\":\"" + BROADER + "\",\"type\":{\"id\":\"Concept\",\"graph\":{\"id\":\"" + GRAPH + "\"}}}]," +
+                "\"related\":[{\"id\":\"" + BROADER + "\",\"type\":{\"id\":\"Concept\"}}]}," +
+                "\"referrers\":{}}," +
+                "{\"id\":\"" + TERM + "\",\"type\":{\"id\":\"Term\",\"graph\":{\"id\":\"" + GRAPH + "\"}}," +
+                "\"properties\":{\"prefLabel\":[{\"lang\":\"fi\",\"value\":\"termi\"},{\"lang\":\"en\",\"value\":\"term\"}]}}" +
+                "]";
+
+        AllNodesResult result = AllNodesResult.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        int vocabularyNode = result.getVocabularyNode();
+        int[] conceptNodes = result.getConceptNodes();
+
+        assertEquals(3, result.getNodeCount());
+        assertEquals(UUID.fromString(VOCABULARY), result.getId(vocabularyNode));
+        assertEquals(1, conceptNodes.length);
+        assertEquals(UUID.fromString(CONCEPT), result.getId(conceptNodes[0]));
+
+        Vocabulary vocabulary = Vocabulary.createFromAllNodesResult(result, vocabularyNode);
+        Concept concept = Concept.createFromAllNodeResult(conceptNodes[0], vocabulary, result);
+        JsonNode document = concept.toElasticSearchDocument(mapper);
+
+        assertEquals("termi", document.get("label").get("fi").get(0).textValue());
+        assertEquals("term", document.get("label").get("en").get(0).textValue());
+        assertEquals("def", document.get("definition").get("fi").get(0).textValue());
+        assertEquals("VALID", document.get("status").textValue());
+        assertEquals(BROADER, document.get("broader").get(0).textValue());
+        assertEquals(0, document.get("narrower").size());
+        assertEquals("sanasto", document.get("vocabulary").get("label").get("fi").get(0).textValue());
+    }
+
+    @Test
+    public void keepsIdsOfReferencedNodesMissingFromResponse() throws Exception {
+        String json = "[" +
+                "{\"id\":\"" + CONCEPT + "\",\"type\":{\"id\":\"Concept\"}," +
+                "\"references\":{\"prefLabelXl\":[{\"id\":\"" + TERM + "\",\"type\":{\"id\":\"Term\"}}]}}," +
+                "{\"id\":\"" + VOCABULARY + "\"}" +
+                "]";
+
+        AllNodesResult result = AllNodesResult.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(1, result.getNodeCount());
+        assertEquals(-1, result.getVocabularyNode());
+
+        int[] terms = result.getRelated(0, AllNodesResult.PREF_LABEL_XL);
+        assertEquals(1, terms.length);
+        assertFalse(result.isPresent(terms[0]));
+        assertTrue(result.typeIs(terms[0], "Term"));
+        assertEquals(UUID.fromString(TERM), result.getId(terms[0]));
+        assertEquals(0, result.getRelated(terms[0], AllNodesResult.BROADER).length);
+        assertFalse(result.hasProperty(terms[0], AllNodesResult.PREF_LABEL));
+    }
+}
@@ -0,0 +1,34 @@
+package fi.vm.yti.terminology.api.index;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkWriterTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void allItemsSucceededWhenNoErrors() throws Exception {
+        JsonParser parser = mapper.getFactory().createParser("{\"errors\":false,\"items\":[{\"index\":{\"status\":201}}]}");
+        BulkWriter.ItemResults results = BulkWriter.parseItemResults(parser, 2);
+        assertArrayEquals(new int[]{ 200, 200 }, results.statuses);
+        assertNull(results.firstError);
+    }
+
+    @Test
+    public void itemStatusesInRequestOrder() throws Exception {
+        String response = "{\"errors\":true,\"items\":[" +
+            "{\"index\":{\"status\":201}}," +
+            "{\"index\":{\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}," +
+            "{\"delete\":{\"status\":404}}," +
+            "{\"index\":{\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed\"}}}]}";
+        JsonParser parser = mapper.getFactory().createParser(response);
+        BulkWriter.ItemResults results = BulkWriter.parseItemResults(parser, 4);
+        assertArrayEquals(new int[]{ 201, 429, 404, 400 }, results.statuses);
+        assertTrue(results.firstError.contains("es_rejected_execution_exception"));
+    }
+}
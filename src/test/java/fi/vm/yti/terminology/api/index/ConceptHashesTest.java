@@ -0,0 +1,51 @@
+package fi.vm.yti.terminology.api.index;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConceptHashesTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void hashDoesNotDependOnFieldOrderOrStoredHash() throws Exception {
+        long hash = ConceptHashes.hash(mapper.readTree("{\"id\":\"a\",\"label\":{\"fi\":[\"x\"],\"en\":[\"y\"]}}"));
+        long reordered = ConceptHashes.hash(mapper.readTree("{\"label\":{\"en\":[\"y\"],\"fi\":[\"x\"]},\"id\":\"a\",\"contentHash\":\"12\"}"));
+        long changed = ConceptHashes.hash(mapper.readTree("{\"id\":\"a\",\"label\":{\"fi\":[\"x\"],\"en\":[\"z\"]}}"));
+
+        assertEquals(hash, reordered);
+        assertNotEquals(hash, changed);
+        assertEquals(hash, ConceptHashes.fromHex(ConceptHashes.toHex(hash)));
+    }
+
+    @Test
+    public void hashesAreRememberedAndForgotten() {
+        ConceptHashes hashes = new ConceptHashes();
+        UUID graphId = UUID.randomUUID();
+        List<String> documentIds = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            String documentId = Concept.formDocumentId(graphId, UUID.randomUUID());
+            documentIds.add(documentId);
+            hashes.put(documentId, i + 1);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            hashes.remove(documentIds.get(i));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 1, hashes.isUnchanged(documentIds.get(i), i + 1));
+        }
+        assertEquals(500, hashes.size());
+
+        hashes.removeGraph(graphId);
+        assertFalse(hashes.isUnchanged(documentIds.get(1), 2));
+    }
+}
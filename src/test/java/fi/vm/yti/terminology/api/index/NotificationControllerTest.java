@@ -0,0 +1,60 @@
+package fi.vm.yti.terminology.api.index;
+
+import fi.vm.yti.terminology.api.TermedMetadataCache;
+import fi.vm.yti.terminology.api.model.termed.GraphId;
+import fi.vm.yti.terminology.api.model.termed.Identifier;
+import fi.vm.yti.terminology.api.model.termed.NodeType;
+import fi.vm.yti.terminology.api.model.termed.TypeId;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class NotificationControllerTest {
+
+    private final IndexUpdateQueue indexUpdateQueue = mock(IndexUpdateQueue.class);
+    private final TermedMetadataCache metadataCache = new TermedMetadataCache(10, 300, new SimpleMeterRegistry());
+    private final NotificationController controller = new NotificationController(indexUpdateQueue, metadataCache);
+
+    @Test
+    public void conceptNotificationLeavesGraphListCached() {
+        UUID graphId = UUID.randomUUID();
+        metadataCache.get(null, "/graphs", () -> "graphs");
+        metadataCache.get(graphId, "/node-trees", () -> "vocabulary");
+
+        TermedNotification notification = notification(new Identifier(UUID.randomUUID(), new TypeId(NodeType.Concept, new GraphId(graphId))));
+        controller.notify(notification);
+
+        assertEquals("graphs", metadataCache.get(null, "/graphs", () -> "fetched"));
+        assertEquals("vocabulary", metadataCache.get(graphId, "/node-trees", () -> "fetched"));
+        verify(indexUpdateQueue).submit(notification);
+    }
+
+    @Test
+    public void vocabularyNotificationInvalidatesItsGraphAndGraphList() {
+        UUID graphId = UUID.randomUUID();
+        metadataCache.get(null, "/graphs", () -> "graphs");
+        metadataCache.get(graphId, "/node-trees", () -> "vocabulary");
+
+        controller.notify(notification(new Identifier(UUID.randomUUID(), new TypeId(NodeType.Vocabulary, new GraphId(graphId)))));
+
+        assertEquals("fetched", metadataCache.get(null, "/graphs", () -> "fetched"));
+        assertEquals("fetched", metadataCache.get(graphId, "/node-trees", () -> "fetched"));
+    }
+
+    private static TermedNotification notification(Identifier node) {
+        TermedNotification notification = new TermedNotification();
+        notification.type = TermedNotification.EventType.NodeSavedEvent;
+        notification.body = new TermedNotification.Body();
+        notification.body.user = "user";
+        notification.body.date = new Date();
+        notification.body.nodes = singletonList(node);
+        return notification;
+    }
+}
@@ -0,0 +1,82 @@
+package fi.vm.yti.terminology.api.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NotificationJournalTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void uncompletedEntriesAreRecovered() throws Exception {
+        try (NotificationJournal journal = new NotificationJournal(directory, mapper, 1024 * 1024)) {
+            long first = journal.append(notification("first"));
+            journal.append(notification("second"));
+            journal.complete(first);
+        }
+
+        try (NotificationJournal journal = new NotificationJournal(directory, mapper, 1024 * 1024)) {
+            List<NotificationJournal.Entry> entries = journal.takeRecoveredEntries();
+            assertEquals(1, entries.size());
+            assertEquals("second", entries.get(0).notification.body.user);
+            assertTrue(journal.append(notification("third")) > entries.get(0).sequence);
+        }
+    }
+
+    @Test
+    public void segmentsAreRemovedWhenCompleted() throws Exception {
+        try (NotificationJournal journal = new NotificationJournal(directory, mapper, 100)) {
+            List<Long> sequences = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                sequences.add(journal.append(notification("user" + i)));
+            }
+            sequences.forEach(journal::complete);
+            assertEquals(0, journal.pending());
+        }
+
+        try (NotificationJournal journal = new NotificationJournal(directory, mapper, 100)) {
+            assertTrue(journal.takeRecoveredEntries().isEmpty());
+        }
+    }
+
+    @Test
+    public void tornEntryAtTheEndIsIgnored() throws Exception {
+        try (NotificationJournal journal = new NotificationJournal(directory, mapper, 1024 * 1024)) {
+            journal.append(notification("complete"));
+        }
+
+        Path segment = Files.list(directory).findFirst().get();
+        Files.write(segment, "2 1234abcd {\"type\":\"NodeSa".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (NotificationJournal journal = new NotificationJournal(directory, mapper, 1024 * 1024)) {
+            List<NotificationJournal.Entry> entries = journal.takeRecoveredEntries();
+            assertEquals(1, entries.size());
+            assertEquals("complete", entries.get(0).notification.body.user);
+        }
+    }
+
+    private static TermedNotification notification(String user) {
+        TermedNotification notification = new TermedNotification();
+        notification.type = TermedNotification.EventType.NodeSavedEvent;
+        notification.body = new TermedNotification.Body();
+        notification.body.user = user;
+        notification.body.date = new Date();
+        notification.body.nodes = new ArrayList<>();
+        return notification;
+    }
+}
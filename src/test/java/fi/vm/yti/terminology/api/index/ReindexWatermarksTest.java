@@ -0,0 +1,51 @@
+package fi.vm.yti.terminology.api.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.UUID;
+
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReindexWatermarksTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void marksAreSavedForTheirIndex() {
+        Path file = directory.resolve("watermarks.json");
+        UUID graphId = UUID.randomUUID();
+        Instant mark = Instant.parse("2019-05-01T10:00:00Z");
+
+        ReindexWatermarks watermarks = new ReindexWatermarks(file, mapper);
+        watermarks.reset("concepts_1", singletonList(graphId), mark);
+        watermarks.save();
+
+        ReindexWatermarks loaded = new ReindexWatermarks(file, mapper);
+        assertTrue(loaded.isFor("concepts_1"));
+        assertFalse(loaded.isFor("concepts_2"));
+        assertEquals(mark, loaded.get(graphId));
+    }
+
+    @Test
+    public void marksOnlyMoveForward() {
+        ReindexWatermarks watermarks = new ReindexWatermarks(directory.resolve("watermarks.json"), mapper);
+        UUID graphId = UUID.randomUUID();
+        Instant mark = Instant.parse("2019-05-01T10:00:00Z");
+
+        watermarks.reset("concepts_1", singletonList(graphId), mark);
+        watermarks.set(graphId, mark.minusSeconds(60));
+        assertEquals(mark, watermarks.get(graphId));
+
+        watermarks.set(graphId, mark.plusSeconds(60));
+        assertEquals(mark.plusSeconds(60), watermarks.get(graphId));
+    }
+}
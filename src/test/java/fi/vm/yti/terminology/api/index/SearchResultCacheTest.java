@@ -0,0 +1,57 @@
+package fi.vm.yti.terminology.api.index;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchResultCacheTest {
+
+    private final AtomicInteger searches = new AtomicInteger();
+
+    private String search() {
+        return "result " + searches.incrementAndGet();
+    }
+
+    @Test
+    public void servesCachedResultUntilIndexChanges() {
+        SearchResultCache cache = new SearchResultCache(10, 0, 60, new SimpleMeterRegistry());
+
+        assertEquals("result 1", cache.get("q", this::search, "concepts", "vocabularies"));
+        assertEquals("result 1", cache.get("q", this::search, "concepts", "vocabularies"));
+
+        cache.indexChanged("vocabularies");
+        assertEquals("result 2", cache.get("q", this::search, "concepts", "vocabularies"));
+
+        cache.indexChanged("other");
+        assertEquals("result 2", cache.get("q", this::search, "concepts", "vocabularies"));
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    public void doesNotCacheResultsReadRightAfterChange() {
+        SearchResultCache cache = new SearchResultCache(10, 60_000, 60, new SimpleMeterRegistry());
+
+        cache.indexChanged("concepts");
+        cache.get("q", this::search, "concepts");
+        cache.get("q", this::search, "concepts");
+
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        SearchResultCache cache = new SearchResultCache(2, 0, 60, new SimpleMeterRegistry());
+
+        cache.get("a", this::search, "concepts");
+        cache.get("b", this::search, "concepts");
+        cache.get("a", this::search, "concepts");
+        cache.get("c", this::search, "concepts");
+
+        assertEquals(2, cache.size());
+        assertEquals("result 1", cache.get("a", this::search, "concepts"));
+        assertEquals("result 4", cache.get("b", this::search, "concepts"));
+    }
+}
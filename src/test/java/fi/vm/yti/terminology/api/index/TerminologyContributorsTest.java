@@ -0,0 +1,75 @@
+package fi.vm.yti.terminology.api.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerminologyContributorsTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private TerminologyContributors.Snapshot load() {
+        loads.incrementAndGet();
+        TerminologyContributors.Snapshot snapshot = new TerminologyContributors.Snapshot();
+        snapshot.add("t1", "http://uri.suomi.fi/terminology/t1/", asList("o1", "o2"));
+        snapshot.add("t2", "http://uri.suomi.fi/terminology/t2/", singletonList("o2"));
+        snapshot.add("t3", null, singletonList("o3"));
+        return snapshot;
+    }
+
+    @Test
+    public void resolvesUnionOfContributedTerminologies() {
+        TerminologyContributors contributors = new TerminologyContributors(this::load, 0, 60_000);
+
+        assertEquals(new HashSet<>(asList("t1", "t2")), contributors.matching(asList("o1", "o2"), null, null));
+        assertEquals(new HashSet<>(singletonList("t2")), contributors.matching(singletonList("o2"), singletonList("t2"), null));
+        assertEquals(new HashSet<>(singletonList("t1")), contributors.matching(singletonList("o2"), null, singletonList("http://uri.suomi.fi/terminology/t1/")));
+        assertTrue(contributors.matching(singletonList("o3"), null, singletonList("http://uri.suomi.fi/")).isEmpty());
+        assertTrue(contributors.matching(emptyList(), null, null).isEmpty());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void reloadsAfterInvalidation() {
+        TerminologyContributors contributors = new TerminologyContributors(this::load, 0, 60_000);
+
+        contributors.matching(singletonList("o1"), null, null);
+        contributors.invalidate();
+        contributors.matching(singletonList("o1"), null, null);
+        contributors.matching(singletonList("o1"), null, null);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void loadBeforeInvalidationSettledIsNotKept() {
+        TerminologyContributors contributors = new TerminologyContributors(this::load, 60_000, 60_000);
+
+        contributors.matching(singletonList("o1"), null, null);
+        contributors.matching(singletonList("o1"), null, null);
+        contributors.invalidate();
+        assertEquals(new HashSet<>(singletonList("t1")), contributors.matching(singletonList("o1"), null, null));
+        contributors.matching(singletonList("o1"), null, null);
+
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void failedLoadIsNotCached() {
+        TerminologyContributors contributors = new TerminologyContributors(() -> {
+            if (loads.getAndIncrement() == 0) {
+                throw new IllegalStateException("unavailable");
+            }
+            return load();
+        }, 0, 60_000);
+
+        assertTrue(contributors.matching(singletonList("o1"), null, null).isEmpty());
+        assertEquals(new HashSet<>(singletonList("t1")), contributors.matching(singletonList("o1"), null, null));
+    }
+}
@@ -0,0 +1,46 @@
+package fi.vm.yti.terminology.api.util;
+
+import org.junit.jupiter.api.Test;
+
+import fi.vm.yti.terminology.api.exception.InvalidQueryException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ElasticRequestUtilsTest {
+
+    @Test
+    public void plainQueryUsesPrefixAndSuffixFieldsWithoutWildcards() {
+        String query = ElasticRequestUtils.buildConceptLabelQuery("Kissa koira").toString();
+
+        assertFalse(query.contains("*kissa"));
+        assertFalse(query.contains("query_string"));
+        assertTrue(query.contains("\"labelPrefix\""));
+        assertTrue(query.contains("\"labelSuffix\""));
+        assertTrue(query.contains("\"koira\""));
+    }
+
+    @Test
+    public void givenAsterisksSelectPrefixOrSuffixField() {
+        String prefix = ElasticRequestUtils.buildTerminologyLabelQuery("kis*").toString();
+        String suffix = ElasticRequestUtils.buildTerminologyLabelQuery("*ssa").toString();
+
+        assertTrue(prefix.contains("properties.prefLabel.value.prefix"));
+        assertFalse(prefix.contains("properties.prefLabel.value.suffix"));
+        assertTrue(suffix.contains("properties.prefLabel.value.suffix"));
+        assertFalse(suffix.contains("properties.prefLabel.value.prefix"));
+        assertFalse(prefix.contains("*") || suffix.contains("*"));
+    }
+
+    @Test
+    public void infixWildcardFallsBackToQueryString() {
+        String query = ElasticRequestUtils.buildConceptLabelQuery("*iss*").toString();
+
+        assertTrue(query.contains("query_string"));
+    }
+
+    @Test
+    public void invalidQueryIsRejected() {
+        assertThrows(InvalidQueryException.class, () -> ElasticRequestUtils.buildConceptLabelQuery("(kissa)"));
+        assertThrows(InvalidQueryException.class, () -> ElasticRequestUtils.buildConceptLabelQuery("  "));
+    }
+}
@@ -0,0 +1,30 @@
+package fi.vm.yti.terminology.api.util;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchCursorTest {
+
+    @Test
+    public void cursorRoundTripsSortValues() throws Exception {
+        String cursor = SearchCursor.encode(new ObjectMapper().readTree("[\"0c6a/5e1f\", 42]"));
+
+        assertFalse(cursor.contains("=") || cursor.contains("/") || cursor.contains("+"));
+        assertArrayEquals(new Object[]{ "0c6a/5e1f", 42L }, SearchCursor.decode(cursor));
+    }
+
+    @Test
+    public void emptyCursorStartsFromFirstPage() {
+        assertEquals(0, SearchCursor.decode("").length);
+        assertEquals(0, SearchCursor.decode(null).length);
+    }
+
+    @Test
+    public void invalidCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.decode("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.decode("e30"));
+    }
+}